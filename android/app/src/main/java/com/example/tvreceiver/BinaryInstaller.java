@@ -0,0 +1,46 @@
+package com.example.tvreceiver;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class BinaryInstaller {
+    private static final String TAG = "BinaryInstaller";
+    public static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private BinaryInstaller() {
+    }
+
+    public static long install(InputStream is, File destFile) throws IOException {
+        return install(is, destFile, COPY_BUFFER_SIZE);
+    }
+
+    public static long install(InputStream is, File destFile, int bufferSize) throws IOException {
+        File tempFile = new File(destFile.getPath() + ".tmp");
+        long totalBytes = 0;
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            byte[] buffer = new byte[bufferSize];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                fos.write(buffer, 0, bytesRead);
+                totalBytes += bytesRead;
+            }
+            fos.flush();
+            Log.i(TAG, "Copied " + totalBytes + " bytes");
+        }
+
+        if (!tempFile.setExecutable(true, false)) {
+            throw new IOException("Failed to set executable permission");
+        }
+        if (!tempFile.setReadable(true, false)) {
+            throw new IOException("Failed to set readable permission");
+        }
+        if (!tempFile.renameTo(destFile)) {
+            throw new IOException("Failed to move binary into place: " + destFile);
+        }
+        return totalBytes;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.tvreceiver;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class DebugOverlay {
+    private static final String TAG = "DebugOverlay";
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private final TextView view;
+    private final PlaybackMetrics playbackMetrics;
+    private final GoServerManager serverManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile String serverSummary = "server: -";
+    private boolean visible = false;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            if (!visible) {
+                return;
+            }
+            view.setText(serverSummary + "\n" + serverManager.getSupervisor().summary()
+                + "\nplayer: " + playbackMetrics.summary());
+            executor.execute(DebugOverlay.this::fetchServerMetrics);
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    public DebugOverlay(TextView view, PlaybackMetrics playbackMetrics, GoServerManager serverManager) {
+        this.view = view;
+        this.playbackMetrics = playbackMetrics;
+        this.serverManager = serverManager;
+    }
+
+    public void toggle() {
+        visible = !visible;
+        view.setVisibility(visible ? View.VISIBLE : View.GONE);
+        handler.removeCallbacks(refresh);
+        if (visible) {
+            handler.post(refresh);
+        }
+    }
+
+    public void release() {
+        visible = false;
+        handler.removeCallbacks(refresh);
+        executor.shutdownNow();
+    }
+
+    private void fetchServerMetrics() {
+        HttpURLConnection conn = null;
+        try {
+            URL url = new URL("http://127.0.0.1:" + serverManager.getPort() + "/metrics");
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(500);
+            conn.setReadTimeout(500);
+
+            long inFlight = 0;
+            long lastThroughput = 0;
+            long libraryBytes = 0;
+            double diskWriteSum = 0;
+            long diskWriteCount = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("#")) {
+                        continue;
+                    }
+                    int space = line.lastIndexOf(' ');
+                    if (space < 0) {
+                        continue;
+                    }
+                    String name = line.substring(0, space);
+                    String value = line.substring(space + 1);
+                    switch (name) {
+                        case "tvreceiver_uploads_in_flight":
+                            inFlight = Long.parseLong(value);
+                            break;
+                        case "tvreceiver_upload_last_bytes_per_second":
+                            lastThroughput = Long.parseLong(value);
+                            break;
+                        case "tvreceiver_library_bytes":
+                            libraryBytes = Long.parseLong(value);
+                            break;
+                        case "tvreceiver_disk_write_seconds_sum":
+                            diskWriteSum = Double.parseDouble(value);
+                            break;
+                        case "tvreceiver_disk_write_seconds_count":
+                            diskWriteCount = Long.parseLong(value);
+                            break;
+                    }
+                }
+            }
+
+            double avgWriteMs = diskWriteCount > 0 ? diskWriteSum * 1000 / diskWriteCount : 0;
+            serverSummary = String.format(Locale.US,
+                "server: uploads %d | last %.1f MB/s | disk write %.1f ms avg | library %d MB",
+                inFlight, lastThroughput / 1048576.0, avgWriteMs, libraryBytes >> 20);
+        } catch (IOException | NumberFormatException e) {
+            Log.d(TAG, "Failed to fetch server metrics: " + e.getMessage());
+            serverSummary = "server: unavailable";
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.tvreceiver;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+
+public final class EmbeddedServer {
+    private static final String TAG = "EmbeddedServer";
+    private static final String LIBRARY_NAME = "tvserver";
+
+    private static final ServerEvents events = new ServerEvents();
+    private static Boolean available;
+
+    private EmbeddedServer() {
+    }
+
+    public static synchronized boolean isAvailable() {
+        if (available == null) {
+            try {
+                System.loadLibrary(LIBRARY_NAME);
+                available = true;
+                Log.i(TAG, "Loaded in-process server library");
+            } catch (UnsatisfiedLinkError e) {
+                available = false;
+                Log.i(TAG, "In-process server not packaged, falling back to child process");
+            }
+        }
+        return available;
+    }
+
+    public static synchronized JSONObject start(String videoDir, int port, long quotaMb, long minFreeMb, int maxItems)
+            throws JSONException {
+        return new JSONObject(nativeStart(videoDir, port, quotaMb, minFreeMb, maxItems));
+    }
+
+    public static synchronized void stop() {
+        nativeStop();
+        Log.i(TAG, "Server stopped");
+    }
+
+    public static synchronized boolean isRunning() {
+        return nativeIsRunning();
+    }
+
+    public static synchronized String setAddress(String ip) {
+        if (!nativeIsRunning()) {
+            return "server is not running";
+        }
+        return nativeSetAddress(ip);
+    }
+
+    public static ServerEvents getEvents() {
+        return events;
+    }
+
+    @SuppressWarnings("unused")
+    private static void onNativeEvent(String kind, byte[] payload) {
+        events.publish(kind, new String(payload, StandardCharsets.UTF_8));
+    }
+
+    private static native String nativeStart(String videoDir, int port, long quotaMb, long minFreeMb, int maxItems);
+
+    private static native void nativeStop();
+
+    private static native String nativeSetAddress(String ip);
+
+    private static native boolean nativeIsRunning();
+}
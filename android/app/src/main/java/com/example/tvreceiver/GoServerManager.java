@@ -1,33 +1,107 @@
 package com.example.tvreceiver;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.core.content.pm.PackageInfoCompat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class GoServerManager {
     private static final String TAG = "GoServerManager";
     private static final String BINARY_NAME = "libserver.so";
     private static final String BINARY_ASSET_PATH = "server/" + BINARY_NAME;
+    private static final String LIBRARY_DIR_NAME = "library";
+    private static final String LIBRARY_INDEX_NAME = "library.json";
+    private static final String THUMB_DIR_NAME = "thumbs";
+    private static final String READY_PREFIX = "READY ";
+    private static final int DEFAULT_PORT = 8080;
+    private static final long STARTUP_TIMEOUT_MS = 5000;
+    private static final long DEFAULT_QUOTA_MB = 4096;
+    private static final long DEFAULT_MIN_FREE_MB = 512;
+    private static final int DEFAULT_MAX_ITEMS = 0;
+    private static final int CONTROL_TIMEOUT_MS = 2000;
+
+    private static GoServerManager instance;
 
     private final Context context;
+    private final boolean embedded;
+    private final ServerEvents events;
+    private final ServerEventClient eventClient;
+    private final NetworkMonitor networkMonitor;
+    private final ServerSupervisor supervisor;
+    private boolean embeddedStarted;
     private Process goProcess;
+    private Process stoppedProcess;
+    private volatile String ip = "unknown";
     private String videoDir;
-    private int port = 8080;
-    private ServerCallback callback;
+    private volatile int port = DEFAULT_PORT;
+    private boolean starting;
+    private final List<ServerCallback> callbacks = new CopyOnWriteArrayList<>();
+    private final ServerCallback callback = new ServerCallback() {
+        @Override
+        public void onServerStarted(String ip, int port) {
+            for (ServerCallback cb : callbacks) {
+                cb.onServerStarted(ip, port);
+            }
+        }
 
-    public GoServerManager(Context context) {
-        this.context = context.getApplicationContext();
-        this.videoDir = context.getFilesDir().getAbsolutePath();
+        @Override
+        public void onServerFailed(String error) {
+            for (ServerCallback cb : callbacks) {
+                cb.onServerFailed(error);
+            }
+        }
+
+        @Override
+        public void onArchitectureDetected(String arch) {
+            for (ServerCallback cb : callbacks) {
+                cb.onArchitectureDetected(arch);
+            }
+        }
+
+        @Override
+        public void onAddressChanged(String ip, int port) {
+            for (ServerCallback cb : callbacks) {
+                cb.onAddressChanged(ip, port);
+            }
+        }
+    };
+
+    public static synchronized GoServerManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new GoServerManager(context);
+        }
+        return instance;
     }
 
-    public void setCallback(ServerCallback callback) {
-        this.callback = callback;
+    private GoServerManager(Context context) {
+        this.context = context.getApplicationContext();
+        this.videoDir = context.getFilesDir().getAbsolutePath();
+        this.embedded = EmbeddedServer.isAvailable();
+        this.events = embedded ? EmbeddedServer.getEvents() : new ServerEvents();
+        this.eventClient = embedded ? null : new ServerEventClient(events);
+        this.networkMonitor = new NetworkMonitor(this.context, this::onAddressChanged);
+        this.supervisor = new ServerSupervisor(this);
     }
 
     private String getDeviceArchitecture() {
@@ -62,63 +136,109 @@ public class GoServerManager {
         void onServerStarted(String ip, int port);
         void onServerFailed(String error);
         void onArchitectureDetected(String arch);
+
+        default void onAddressChanged(String ip, int port) {
+        }
     }
 
-    public synchronized void startServer(ServerCallback callback) {
+    public synchronized void startServer(ServerCallback owner) {
+        if (owner != null && !callbacks.contains(owner)) {
+            callbacks.add(owner);
+        }
+        supervisor.enable();
         if (isRunning()) {
-            Log.w(TAG, "Server is already running");
-            if (callback != null) {
-                callback.onServerStarted(getLocalIP(), port);
+            Log.i(TAG, "Attached to running server (" + callbacks.size() + " owners)");
+            if (owner != null) {
+                owner.onServerStarted(ip, port);
             }
             return;
         }
+        if (starting) {
+            Log.i(TAG, "Server is already starting");
+            return;
+        }
+
+        if (embedded) {
+            if (embeddedStarted) {
+                Log.w(TAG, "Server is already starting");
+                return;
+            }
+            embeddedStarted = true;
+            startEmbedded(callback);
+            return;
+        }
+
+        final Process previous = stoppedProcess;
+        stoppedProcess = null;
+        starting = true;
 
         new Thread(() -> {
             try {
+                if (previous != null) {
+                    previous.waitFor();
+                }
+
                 String binaryPath = prepareBinary();
                 if (binaryPath == null) {
                     String error = "Failed to prepare binary. Please check device architecture and try again.";
                     Log.e(TAG, error);
+                    supervisor.onStartFailed();
                     if (callback != null) {
                         callback.onServerFailed(error);
                     }
                     return;
                 }
 
-                ProcessBuilder pb = new ProcessBuilder(binaryPath, videoDir);
+                ProcessBuilder pb = new ProcessBuilder(binaryPath, "-port", String.valueOf(port), videoDir);
                 pb.redirectErrorStream(true);
                 pb.directory(new File(videoDir));
 
-                goProcess = pb.start();
+                final CountDownLatch ready = new CountDownLatch(1);
+                final Process process = pb.start();
+                synchronized (this) {
+                    goProcess = process;
+                }
+                supervisor.watch(process);
 
                 Thread logThread = new Thread(() -> {
                     try {
-                        InputStream is = goProcess.getInputStream();
+                        InputStream is = process.getInputStream();
                         BufferedReader reader = new BufferedReader(new InputStreamReader(is));
                         String line;
                         while ((line = reader.readLine()) != null) {
                             Log.i(TAG, "[GoServer] " + line);
-                            if (line.contains("Server starting at")) {
-                                parseServerInfo(line);
+                            if (line.startsWith(READY_PREFIX) && parseReadyMessage(line)) {
+                                ready.countDown();
                             }
                         }
                     } catch (IOException e) {
                         Log.e(TAG, "Error reading server output", e);
+                    } finally {
+                        ready.countDown();
                     }
                 });
                 logThread.setDaemon(true);
                 logThread.start();
 
-                Thread.sleep(500);
+                long startedAt = SystemClock.elapsedRealtime();
+                boolean signalled = ready.await(STARTUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 
-                if (isRunning()) {
-                    String ip = getLocalIP();
+                if (signalled && isRunning()) {
+                    Log.i(TAG, "Server ready in " + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+                    eventClient.connect(port);
+                    syncAddress();
+                    supervisor.onStarted();
                     if (callback != null) {
                         callback.onServerStarted(ip, port);
                     }
                 } else {
-                    String error = "Server process died immediately. Check logs for details.";
+                    String error = signalled
+                        ? "Server process died immediately. Check logs for details."
+                        : "Server did not report readiness within " + STARTUP_TIMEOUT_MS + " ms";
                     Log.e(TAG, error);
+                    if (!signalled) {
+                        supervisor.onStartFailed();
+                    }
                     if (callback != null) {
                         callback.onServerFailed(error);
                     }
@@ -126,35 +246,137 @@ public class GoServerManager {
             } catch (Exception e) {
                 String error = "Failed to start server: " + e.getMessage();
                 Log.e(TAG, error, e);
+                supervisor.onStartFailed();
                 if (callback != null) {
                     callback.onServerFailed(error);
                 }
+            } finally {
+                synchronized (this) {
+                    starting = false;
+                }
+            }
+        }).start();
+    }
+
+    private void startEmbedded(ServerCallback callback) {
+        new Thread(() -> {
+            if (callback != null) {
+                callback.onArchitectureDetected(getDeviceArchitecture());
+            }
+            long startedAt = SystemClock.elapsedRealtime();
+            String error;
+            try {
+                JSONObject result = EmbeddedServer.start(videoDir, port,
+                    DEFAULT_QUOTA_MB, DEFAULT_MIN_FREE_MB, DEFAULT_MAX_ITEMS);
+                error = result.optString("error");
+                if (error.isEmpty()) {
+                    applyReadyMessage(result);
+                    Log.i(TAG, "In-process server ready in " + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+                    syncAddress();
+                    supervisor.onStarted();
+                    if (callback != null) {
+                        callback.onServerStarted(ip, port);
+                    }
+                    return;
+                }
+            } catch (JSONException e) {
+                error = "Malformed start result: " + e.getMessage();
+            }
+
+            synchronized (this) {
+                embeddedStarted = false;
+            }
+            Log.e(TAG, error);
+            supervisor.onStartFailed();
+            if (callback != null) {
+                callback.onServerFailed(error);
             }
         }).start();
     }
 
-    public synchronized void stopServer() {
+    public synchronized void stopServer(ServerCallback owner) {
+        callbacks.remove(owner);
+        if (!callbacks.isEmpty()) {
+            Log.i(TAG, "Detached from server (" + callbacks.size() + " owners left)");
+            return;
+        }
+        supervisor.disable();
+        stopCurrent();
+    }
+
+    private void stopCurrent() {
+        networkMonitor.stop();
+        if (embeddedStarted) {
+            EmbeddedServer.stop();
+            embeddedStarted = false;
+            return;
+        }
+        if (eventClient != null) {
+            eventClient.disconnect();
+        }
         if (goProcess != null) {
             goProcess.destroy();
+            stoppedProcess = goProcess;
             goProcess = null;
             Log.i(TAG, "Server stopped");
         }
     }
 
     public synchronized boolean isRunning() {
-        if (goProcess == null) {
-            return false;
+        if (embedded) {
+            return embeddedStarted && EmbeddedServer.isRunning();
         }
-        try {
-            goProcess.exitValue();
-            return false;
-        } catch (IllegalThreadStateException e) {
-            return true;
+        return goProcess != null;
+    }
+
+    synchronized void onProcessExited(Process process, int exitCode) {
+        if (process != goProcess) {
+            return;
+        }
+        goProcess = null;
+        eventClient.disconnect();
+        networkMonitor.stop();
+        Log.e(TAG, "Server process exited unexpectedly with code " + exitCode);
+        supervisor.onExited(exitCode);
+        if (callback != null) {
+            callback.onServerFailed("Server process exited with code " + exitCode);
+        }
+    }
+
+    public ServerSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    public void addEventListener(ServerEvents.Listener listener) {
+        events.addListener(listener);
+    }
+
+    public void removeEventListener(ServerEvents.Listener listener) {
+        events.removeListener(listener);
+    }
+
+    public String getLibraryDir() {
+        File dir = new File(videoDir, LIBRARY_DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Failed to create library directory: " + dir);
+        }
+        return dir.getAbsolutePath();
+    }
+
+    public String getThumbDir() {
+        File dir = new File(videoDir, THUMB_DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Failed to create thumbnail directory: " + dir);
         }
+        return dir.getAbsolutePath();
     }
 
-    public String getVideoPath() {
-        return new File(videoDir, "video.mp4").getAbsolutePath();
+    public String getLibraryIndexPath() {
+        return new File(videoDir, LIBRARY_INDEX_NAME).getAbsolutePath();
+    }
+
+    public int getPort() {
+        return port;
     }
 
     public String getVideoDir() {
@@ -163,24 +385,33 @@ public class GoServerManager {
 
     private String prepareBinary() {
         String arch = getDeviceArchitecture();
+        if (callback != null) {
+            callback.onArchitectureDetected(arch);
+        }
+
+        File packagedBinary = new File(context.getApplicationInfo().nativeLibraryDir, BINARY_NAME);
+        if (packagedBinary.canExecute()) {
+            Log.i(TAG, "Using packaged binary: " + packagedBinary);
+            return packagedBinary.getAbsolutePath();
+        }
+
         String assetPath = getBinaryAssetPath(arch);
         File binaryFile = new File(context.getFilesDir(), BINARY_NAME);
+        File stampFile = new File(context.getFilesDir(), BINARY_NAME + ".stamp");
         String binaryPath = binaryFile.getAbsolutePath();
 
         Log.i(TAG, "Device architecture: " + arch);
         Log.i(TAG, "Asset path: " + assetPath);
         Log.i(TAG, "Binary path: " + binaryPath);
 
-        if (callback != null) {
-            callback.onArchitectureDetected(arch);
-        }
-
         try {
-            boolean needCopy = !binaryFile.exists() || isBinaryOutdated(assetPath);
+            String stamp = buildStamp(assetPath);
+            boolean needCopy = !binaryFile.exists() || !stamp.equals(readStamp(stampFile));
             Log.i(TAG, "Need copy: " + needCopy + ", binary exists: " + binaryFile.exists());
 
             if (needCopy) {
                 copyBinaryFromAssets(binaryFile, assetPath);
+                writeStamp(stampFile, stamp);
             }
 
             if (!binaryFile.canExecute()) {
@@ -199,26 +430,25 @@ public class GoServerManager {
         }
     }
 
-    private boolean isBinaryOutdated(String assetPath) {
-        try {
-            long assetLastModified = getAssetLastModified(assetPath);
-            File binaryFile = new File(context.getFilesDir(), BINARY_NAME);
-            if (!binaryFile.exists()) {
-                return true;
-            }
-            return binaryFile.lastModified() < assetLastModified;
-        } catch (Exception e) {
-            return true;
-        }
+    private String buildStamp(String assetPath) throws PackageManager.NameNotFoundException {
+        PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+        return assetPath + ":" + PackageInfoCompat.getLongVersionCode(info) + ":" + info.lastUpdateTime;
     }
 
-    private long getAssetLastModified(String assetPath) {
-        try {
-            android.content.res.AssetFileDescriptor afd = context.getAssets().openFd(assetPath);
-            afd.close();
-            return System.currentTimeMillis();
+    private String readStamp(File stampFile) {
+        if (!stampFile.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stampFile)))) {
+            return reader.readLine();
         } catch (IOException e) {
-            return 0;
+            return null;
+        }
+    }
+
+    private void writeStamp(File stampFile, String stamp) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(stampFile)) {
+            fos.write(stamp.getBytes(StandardCharsets.UTF_8));
         }
     }
 
@@ -233,74 +463,94 @@ public class GoServerManager {
             throw new IOException("Asset file not found: " + assetPath, e);
         }
         
-        try (FileOutputStream fos = new FileOutputStream(destFile)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            long totalBytes = 0;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                totalBytes += bytesRead;
-            }
-            fos.flush();
-            Log.i(TAG, "Copied " + totalBytes + " bytes");
+        try {
+            BinaryInstaller.install(is, destFile);
         } finally {
-            if (is != null) {
-                is.close();
-            }
-        }
-
-        if (!destFile.setExecutable(true, false)) {
-            throw new IOException("Failed to set executable permission");
-        }
-        if (!destFile.setReadable(true, false)) {
-            throw new IOException("Failed to set readable permission");
+            is.close();
         }
 
         Log.i(TAG, "Binary copied from " + assetPath + " to: " + destFile.getAbsolutePath());
     }
 
-    private void parseServerInfo(String line) {
+    private boolean parseReadyMessage(String line) {
         try {
-            if (line.contains("Server starting at")) {
-                String[] parts = line.split(":");
-                if (parts.length >= 3) {
-                    port = Integer.parseInt(parts[parts.length - 1].trim());
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to parse server info", e);
+            applyReadyMessage(new JSONObject(line.substring(READY_PREFIX.length())));
+            return true;
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to parse ready message: " + line, e);
+            return false;
         }
     }
 
+    private void applyReadyMessage(JSONObject ready) throws JSONException {
+        port = ready.getInt("port");
+        String reportedIp = ready.optString("ip");
+        ip = reportedIp.isEmpty() ? getLocalIP() : reportedIp;
+    }
+
     private String getLocalIP() {
-        try {
-            java.util.Enumeration<java.net.NetworkInterface> interfaces =
-                java.net.NetworkInterface.getNetworkInterfaces();
-            while (interfaces.hasMoreElements()) {
-                java.net.NetworkInterface iface = interfaces.nextElement();
-                if (iface.isLoopback() || !iface.isUp()) continue;
-
-                java.util.Enumeration<java.net.InetAddress> addresses = iface.getInetAddresses();
-                while (addresses.hasMoreElements()) {
-                    java.net.InetAddress addr = addresses.nextElement();
-                    if (addr instanceof java.net.Inet4Address) {
-                        return addr.getHostAddress();
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to get local IP", e);
+        String address = NetworkMonitor.findLanAddress(context);
+        return address != null ? address : "unknown";
+    }
+
+    private void syncAddress() {
+        String address = NetworkMonitor.findLanAddress(context);
+        if (address != null && !address.equals(ip) && pushAddress(address)) {
+            ip = address;
         }
-        return "unknown";
+        networkMonitor.start(ip);
     }
 
-    public void restartServer(ServerCallback callback) {
-        stopServer();
+    private void onAddressChanged(String address) {
+        new Thread(() -> {
+            if (!isRunning() || !pushAddress(address)) {
+                return;
+            }
+            ip = address;
+            ServerCallback cb = callback;
+            if (cb != null) {
+                cb.onAddressChanged(address, port);
+            }
+        }, "AddressUpdate").start();
+    }
+
+    private boolean pushAddress(String address) {
+        if (embedded) {
+            String error = EmbeddedServer.setAddress(address);
+            if (error != null) {
+                Log.w(TAG, "Server rejected address " + address + ": " + error);
+                return false;
+            }
+            Log.i(TAG, "Server now advertises " + address);
+            return true;
+        }
+
+        HttpURLConnection conn = null;
         try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            URL url = new URL("http://127.0.0.1:" + port + "/control/address?ip=" + address);
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("POST");
+            conn.setConnectTimeout(CONTROL_TIMEOUT_MS);
+            conn.setReadTimeout(CONTROL_TIMEOUT_MS);
+            int code = conn.getResponseCode();
+            if (code / 100 != 2) {
+                Log.w(TAG, "Server rejected address " + address + " (HTTP " + code + ")");
+                return false;
+            }
+            Log.i(TAG, "Server now advertises " + address);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to push address to server: " + e.getMessage());
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
         }
-        startServer(callback);
+    }
+
+    public synchronized void restartServer() {
+        stopCurrent();
+        startServer(null);
     }
 }
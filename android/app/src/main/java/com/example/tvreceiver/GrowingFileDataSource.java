@@ -0,0 +1,127 @@
+package com.example.tvreceiver;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.BaseDataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class GrowingFileDataSource extends BaseDataSource {
+    private final ProgressiveUpload upload;
+
+    @Nullable
+    private RandomAccessFile file;
+    @Nullable
+    private Uri uri;
+    private long position;
+    private long bytesRemaining;
+    private boolean opened;
+
+    public GrowingFileDataSource(ProgressiveUpload upload) {
+        super(false);
+        this.upload = upload;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        uri = dataSpec.uri;
+        transferInitializing(dataSpec);
+
+        file = openUploadFile();
+        position = dataSpec.position;
+        file.seek(position);
+
+        if (dataSpec.length != C.LENGTH_UNSET) {
+            bytesRemaining = dataSpec.length;
+        } else if (upload.isCompleted()) {
+            bytesRemaining = Math.max(0, file.length() - position);
+        } else {
+            bytesRemaining = C.LENGTH_UNSET;
+        }
+
+        opened = true;
+        transferStarted(dataSpec);
+        return bytesRemaining;
+    }
+
+    private RandomAccessFile openUploadFile() throws IOException {
+        while (true) {
+            File current = upload.getFile();
+            try {
+                return new RandomAccessFile(current, "r");
+            } catch (FileNotFoundException e) {
+                if (upload.isCompleted() && current.equals(upload.getFile())) {
+                    throw e;
+                }
+                upload.awaitGrowth();
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        long available;
+        while (true) {
+            boolean completed = upload.isCompleted();
+            available = upload.readableLength(file.length()) - position;
+            if (available > 0) {
+                break;
+            }
+            if (completed) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            upload.awaitGrowth();
+        }
+
+        int toRead = (int) Math.min(length, available);
+        if (bytesRemaining != C.LENGTH_UNSET) {
+            toRead = (int) Math.min(toRead, bytesRemaining);
+        }
+
+        int read = file.read(buffer, offset, toRead);
+        if (read > 0) {
+            position += read;
+            if (bytesRemaining != C.LENGTH_UNSET) {
+                bytesRemaining -= read;
+            }
+            bytesTransferred(read);
+        }
+        return read;
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        uri = null;
+        try {
+            if (file != null) {
+                file.close();
+            }
+        } finally {
+            file = null;
+            if (opened) {
+                opened = false;
+                transferEnded();
+            }
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package com.example.tvreceiver;
 
+import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Color;
+import android.graphics.BitmapFactory;
 import android.graphics.Typeface;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
@@ -9,6 +10,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
@@ -20,27 +22,29 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.EncodeHintType;
-import com.google.zxing.WriterException;
-import com.google.zxing.common.BitMatrix;
-import com.google.zxing.qrcode.QRCodeWriter;
-
 import java.io.File;
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity implements
         GoServerManager.ServerCallback,
-        VideoFileObserver.VideoEventListener,
-        VideoPlayerManager.PlayerEventListener {
+        ServerEvents.Listener,
+        VideoPlayerManager.PlayerEventListener,
+        MediaProcessor.Listener {
 
     private static final String TAG = "MainActivity";
+    public static final String EXTRA_MEDIA_URL = "media_url";
+    private static final long PROGRESSIVE_PROBE_INTERVAL_MS = 250;
+    private static final int QR_CODE_SIZE = 400;
 
     private GoServerManager serverManager;
-    private VideoFileObserver fileObserver;
     private VideoPlayerManager playerManager;
+    private MediaLibrary mediaLibrary;
+    private ProgressiveUpload pendingUpload;
+    private ProgressiveUpload activeUpload;
+    private String uploadName = "";
 
     private LinearLayout infoContainer;
     private FrameLayout videoContainer;
@@ -50,6 +54,15 @@ public class MainActivity extends AppCompatActivity implements
     private TextView tvHint;
     private ProgressBar progressBar;
     private ImageView qrCodeView;
+    private LinearLayout latestCard;
+    private ImageView ivLatestThumb;
+    private TextView tvLatestInfo;
+    private ThumbnailExtractor thumbnailExtractor;
+    private MediaProcessor mediaProcessor;
+    private final QrCodeRenderer qrCodeRenderer = new QrCodeRenderer(QR_CODE_SIZE);
+    private String qrCodeText;
+    private DebugOverlay debugOverlay;
+    private final ExecutorService libraryExecutor = Executors.newSingleThreadExecutor();
 
     private final Handler handler = new Handler(Looper.getMainLooper());
 
@@ -61,6 +74,31 @@ public class MainActivity extends AppCompatActivity implements
         initViews();
         initManagers();
         startServer();
+        handleStreamIntent(getIntent());
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        handleStreamIntent(intent);
+    }
+
+    private void handleStreamIntent(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        String url = intent.getStringExtra(EXTRA_MEDIA_URL);
+        if (url != null && !url.isEmpty()) {
+            playStream(url);
+        }
+    }
+
+    private void playStream(String url) {
+        cancelPendingUpload();
+        activeUpload = null;
+        infoContainer.setVisibility(View.GONE);
+        playerManager.playUrl(url);
     }
 
     private void initViews() {
@@ -72,15 +110,22 @@ public class MainActivity extends AppCompatActivity implements
         tvHint = findViewById(R.id.tvHint);
         progressBar = findViewById(R.id.progressBar);
         qrCodeView = findViewById(R.id.qrCodeView);
+        latestCard = findViewById(R.id.latestCard);
+        ivLatestThumb = findViewById(R.id.ivLatestThumb);
+        tvLatestInfo = findViewById(R.id.tvLatestInfo);
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
     }
 
     private void initManagers() {
-        serverManager = new GoServerManager(this);
-        serverManager.setCallback(this);
+        serverManager = GoServerManager.getInstance(this);
+        serverManager.addEventListener(this);
         playerManager = new VideoPlayerManager(this, videoContainer);
         playerManager.setListener(this);
+        debugOverlay = new DebugOverlay(findViewById(R.id.tvDebugOverlay), playerManager.getMetrics(), serverManager);
+        mediaLibrary = new MediaLibrary(serverManager.getLibraryIndexPath(), serverManager.getLibraryDir());
+        thumbnailExtractor = new ThumbnailExtractor(serverManager.getThumbDir());
+        mediaProcessor = new MediaProcessor(serverManager, mediaLibrary);
     }
 
     private void startServer() {
@@ -95,13 +140,6 @@ public class MainActivity extends AppCompatActivity implements
         });
     }
 
-    private void setupFileObserver() {
-        String videoPath = serverManager.getVideoPath();
-        fileObserver = new VideoFileObserver(videoPath, this);
-        fileObserver.startWatching();
-        Log.i(TAG, "FileObserver started for: " + videoPath);
-    }
-
     @Override
     public void onArchitectureDetected(String arch) {
         runOnUiThread(() -> {
@@ -121,39 +159,97 @@ public class MainActivity extends AppCompatActivity implements
             tvStatus.setText("服务器已启动");
             tvStatus.setTextColor(getColor(android.R.color.holo_green_dark));
             tvHint.setText("使用手机浏览器访问以上地址上传视频");
+            tvHint.setTextColor(getColor(android.R.color.darker_gray));
+            tvHint.setTextSize(16);
             infoContainer.setVisibility(View.VISIBLE);
 
             String url = "http://" + ip + ":" + port;
             generateQRCode(url);
+            refreshLatestCard();
         });
+    }
 
-        setupFileObserver();
+    @Override
+    public void onAddressChanged(String ip, int port) {
+        runOnUiThread(() -> {
+            tvIP.setText(ip);
+            tvPort.setText(String.valueOf(port));
+            generateQRCode("http://" + ip + ":" + port);
+            Toast.makeText(this, "网络已切换: " + ip, Toast.LENGTH_SHORT).show();
+        });
     }
 
-    private void generateQRCode(String text) {
-        try {
-            QRCodeWriter writer = new QRCodeWriter();
-            Map<EncodeHintType, Object> hints = new HashMap<>();
-            hints.put(EncodeHintType.MARGIN, 1);
-            
-            BitMatrix bitMatrix = writer.encode(text, BarcodeFormat.QR_CODE, 400, 400, hints);
-            int width = bitMatrix.getWidth();
-            int height = bitMatrix.getHeight();
-            
-            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    bitmap.setPixel(x, y, bitMatrix.get(x, y) ? Color.BLACK : Color.WHITE);
+    private void refreshLatestCard() {
+        if (libraryExecutor.isShutdown()) {
+            return;
+        }
+        libraryExecutor.execute(() -> {
+            MediaLibrary.Entry latest = mediaLibrary.latest();
+            Bitmap bitmap = null;
+            if (latest != null) {
+                File thumb = thumbnailExtractor.getThumbnail(latest, 1);
+                bitmap = thumb.exists() ? BitmapFactory.decodeFile(thumb.getPath()) : null;
+                if (bitmap == null) {
+                    thumbnailExtractor.extract(latest, mediaLibrary.getPath(latest), id -> refreshLatestCard());
                 }
             }
-            
-            qrCodeView.setImageBitmap(bitmap);
-            qrCodeView.setVisibility(View.VISIBLE);
-            Log.i(TAG, "QR Code generated: " + text);
-        } catch (WriterException e) {
-            Log.e(TAG, "Failed to generate QR code", e);
-            qrCodeView.setVisibility(View.GONE);
+            Bitmap thumbnail = bitmap;
+            runOnUiThread(() -> showLatestCard(latest, thumbnail));
+        });
+    }
+
+    private void showLatestCard(MediaLibrary.Entry latest, Bitmap bitmap) {
+        if (isDestroyed()) {
+            return;
+        }
+        if (latest == null) {
+            latestCard.setVisibility(View.GONE);
+            return;
+        }
+
+        StringBuilder info = new StringBuilder("最近接收: ").append(latest.name);
+        if (latest.durationMs > 0) {
+            long seconds = latest.durationMs / 1000;
+            info.append(String.format(Locale.US, "\n时长 %d:%02d", seconds / 60, seconds % 60));
+        }
+        if (latest.width > 0 && latest.height > 0) {
+            info.append(String.format(Locale.US, "\n%dx%d %s", latest.width, latest.height, latest.codec));
+        }
+        if (latest.bitrate > 0) {
+            info.append(String.format(Locale.US, "\n码率 %.1f Mbps", latest.bitrate / 1000000.0));
+        }
+        tvLatestInfo.setText(info);
+
+        ivLatestThumb.setImageBitmap(bitmap);
+        ivLatestThumb.setVisibility(bitmap != null ? View.VISIBLE : View.GONE);
+        latestCard.setVisibility(View.VISIBLE);
+    }
+
+    private void generateQRCode(String text) {
+        if (text.equals(qrCodeText)) {
+            return;
         }
+        qrCodeText = text;
+        qrCodeRenderer.render(text, new QrCodeRenderer.Callback() {
+            @Override
+            public void onQrCodeReady(String renderedText, Bitmap bitmap) {
+                if (!renderedText.equals(qrCodeText)) {
+                    return;
+                }
+                qrCodeView.setImageBitmap(bitmap);
+                qrCodeView.setVisibility(View.VISIBLE);
+                Log.i(TAG, "QR Code generated: " + renderedText);
+            }
+
+            @Override
+            public void onQrCodeFailed(String failedText, Exception error) {
+                Log.e(TAG, "Failed to generate QR code", error);
+                if (failedText.equals(qrCodeText)) {
+                    qrCodeText = null;
+                    qrCodeView.setVisibility(View.GONE);
+                }
+            }
+        });
     }
 
     @Override
@@ -165,39 +261,243 @@ public class MainActivity extends AppCompatActivity implements
             tvHint.setText(error);
             tvHint.setTextColor(getColor(android.R.color.holo_red_dark));
             tvHint.setTextSize(14);
+            tvStatus.append("，将自动重试");
+        });
+    }
+
+    @Override
+    public void onUploadStarted(String tempPath, String name, long size, boolean queued, boolean streamable) {
+        runOnUiThread(() -> {
+            uploadName = name;
+            tvStatus.setText("正在接收: " + name);
+            if (queued && playerManager.isActive()) {
+                return;
+            }
+            cancelPendingUpload();
+            playerManager.warmUp();
+            if (!streamable) {
+                Log.i(TAG, "moov follows mdat in " + name + ", waiting for full upload");
+                return;
+            }
+            pendingUpload = new ProgressiveUpload(tempPath);
+            handler.postDelayed(progressiveProbe, PROGRESSIVE_PROBE_INTERVAL_MS);
+        });
+    }
 
-            handler.postDelayed(() -> {
-                progressBar.setVisibility(View.VISIBLE);
-                tvStatus.setText("正在重试...");
-                tvHint.setText("上传视频后将自动播放");
-                tvHint.setTextColor(getColor(android.R.color.darker_gray));
-                tvHint.setTextSize(16);
-                serverManager.restartServer(MainActivity.this);
-            }, 5000);
+    @Override
+    public void onUploadProgress(String tempPath, long written, long available, long size) {
+        runOnUiThread(() -> {
+            if (available >= 0) {
+                for (ProgressiveUpload upload : new ProgressiveUpload[] {pendingUpload, activeUpload}) {
+                    if (upload != null && upload.getFile().getPath().equals(tempPath)) {
+                        upload.setAvailable(available);
+                    }
+                }
+            }
+            if (size > 0) {
+                tvStatus.setText(String.format(Locale.US, "正在接收: %s (%d%%)", uploadName, written * 100 / size));
+            } else {
+                tvStatus.setText(String.format(Locale.US, "正在接收: %s (%.1f MB)", uploadName, written / 1048576.0));
+            }
+        });
+    }
+
+    @Override
+    public void onUploadAborted(String tempPath) {
+        runOnUiThread(() -> {
+            tvStatus.setText("上传已中断");
+            cancelPendingUpload();
+            if (activeUpload != null) {
+                activeUpload.markAborted();
+                activeUpload = null;
+            }
         });
     }
 
+    @Override
+    public void onUploadCompleted(String tempPath, String finalPath) {
+        runOnUiThread(() -> {
+            if (activeUpload != null && activeUpload.getFile().getPath().equals(tempPath)) {
+                activeUpload.markCompleted(finalPath);
+            }
+        });
+    }
+
+    private final Runnable progressiveProbe = new Runnable() {
+        @Override
+        public void run() {
+            ProgressiveUpload upload = pendingUpload;
+            if (upload == null) {
+                return;
+            }
+            switch (upload.probe()) {
+                case READY:
+                    pendingUpload = null;
+                    activeUpload = upload;
+                    Toast.makeText(MainActivity.this, "正在接收视频，边传边播...", Toast.LENGTH_SHORT).show();
+                    infoContainer.setVisibility(View.GONE);
+                    playerManager.playProgressive(upload);
+                    break;
+                case PENDING:
+                    handler.postDelayed(this, PROGRESSIVE_PROBE_INTERVAL_MS);
+                    break;
+                case UNSUPPORTED:
+                    pendingUpload = null;
+                    break;
+            }
+        }
+    };
+
+    private void cancelPendingUpload() {
+        handler.removeCallbacks(progressiveProbe);
+        pendingUpload = null;
+    }
+
+    @Override
+    public void onMetadataUpdated(String id, String key, long durationMs) {
+        if (libraryExecutor.isShutdown()) {
+            return;
+        }
+        libraryExecutor.execute(() -> {
+            MediaLibrary.Entry entry = mediaLibrary.get(id);
+            if (entry != null) {
+                thumbnailExtractor.extract(entry, mediaLibrary.getPath(entry), readyId -> refreshLatestCard());
+            }
+        });
+        refreshLatestCard();
+    }
+
+    @Override
+    public void onStreamRequested(String url) {
+        runOnUiThread(() -> {
+            Toast.makeText(this, "正在播放网络视频...", Toast.LENGTH_SHORT).show();
+            playStream(url);
+        });
+    }
+
+    @Override
+    public void onVideoEnqueued(String videoPathOrUrl) {
+        runOnUiThread(() -> {
+            if (finishActiveUpload(videoPathOrUrl)) {
+                return;
+            }
+            if (videoPathOrUrl.startsWith("http://") || videoPathOrUrl.startsWith("https://")) {
+                enqueueVideo(videoPathOrUrl);
+                return;
+            }
+            mediaProcessor.process(videoPathOrUrl, new MediaProcessor.Listener() {
+                @Override
+                public void onProcessingStarted(String videoPath, boolean transcoding) {
+                    MainActivity.this.onProcessingStarted(videoPath, transcoding);
+                }
+
+                @Override
+                public void onProcessingProgress(String videoPath, boolean transcoding, int percent) {
+                    MainActivity.this.onProcessingProgress(videoPath, transcoding, percent);
+                }
+
+                @Override
+                public void onProcessed(String videoPath, String playablePath) {
+                    tvStatus.setText("服务器已启动");
+                    enqueueVideo(playablePath);
+                }
+            });
+        });
+    }
+
+    private void enqueueVideo(String videoPathOrUrl) {
+        boolean startsNow = !playerManager.isActive();
+        infoContainer.setVisibility(View.GONE);
+        playerManager.enqueue(videoPathOrUrl);
+        if (!startsNow) {
+            Toast.makeText(this, "已加入播放队列", Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public void onVideoReady(String videoPath) {
         runOnUiThread(() -> {
+            tvStatus.setText("服务器已启动");
+            cancelPendingUpload();
+            if (finishActiveUpload(videoPath)) {
+                return;
+            }
             Toast.makeText(this, "收到视频，准备播放...", Toast.LENGTH_SHORT).show();
-            playVideo(videoPath);
+            mediaProcessor.process(videoPath, this);
         });
     }
 
+    @Override
+    public void onProcessingStarted(String videoPath, boolean transcoding) {
+        Log.i(TAG, (transcoding ? "Transcoding " : "Remuxing ") + videoPath);
+        tvStatus.setText(transcoding ? "正在转换格式..." : "正在整理视频...");
+    }
+
+    @Override
+    public void onProcessingProgress(String videoPath, boolean transcoding, int percent) {
+        String status = transcoding ? "正在转换格式" : "正在整理视频";
+        tvStatus.setText(String.format(Locale.US, "%s %d%%", status, percent));
+    }
+
+    @Override
+    public void onProcessed(String videoPath, String playablePath) {
+        tvStatus.setText("服务器已启动");
+        playVideo(playablePath);
+    }
+
+    private boolean finishActiveUpload(String videoPath) {
+        if (activeUpload == null || !activeUpload.getFile().getPath().equals(videoPath)) {
+            return false;
+        }
+        activeUpload = null;
+        mediaLibrary.markPlayed(videoPath, serverManager.getPort());
+        return true;
+    }
+
     private void playVideo(String videoPath) {
         File videoFile = new File(videoPath);
         if (videoFile.exists() && videoFile.length() > 0) {
             infoContainer.setVisibility(View.GONE);
             playerManager.playVideo(videoPath);
+            mediaLibrary.markPlayed(videoPath, serverManager.getPort());
         }
     }
 
+    private void playLatestFromLibrary() {
+        libraryExecutor.execute(() -> {
+            MediaLibrary.Entry latest = mediaLibrary.latest();
+            runOnUiThread(() -> {
+                if (latest == null) {
+                    Toast.makeText(this, "暂无已保存的视频", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                playVideo(mediaLibrary.getPath(latest));
+            });
+        });
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_INFO || keyCode == KeyEvent.KEYCODE_MENU) {
+            debugOverlay.toggle();
+            return true;
+        }
+        boolean idle = infoContainer.getVisibility() == View.VISIBLE;
+        if (idle && (keyCode == KeyEvent.KEYCODE_MEDIA_PLAY
+                || keyCode == KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE
+                || keyCode == KeyEvent.KEYCODE_DPAD_CENTER)) {
+            playLatestFromLibrary();
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
     @Override
     public void onPlaybackCompleted() {
         runOnUiThread(() -> {
-            playerManager.releasePlayer();
+            playerManager.stopAndHide();
             infoContainer.setVisibility(View.VISIBLE);
+            refreshLatestCard();
             Toast.makeText(this, "播放完成", Toast.LENGTH_SHORT).show();
         });
     }
@@ -206,8 +506,10 @@ public class MainActivity extends AppCompatActivity implements
     public void onPlaybackError(String error) {
         runOnUiThread(() -> {
             Toast.makeText(this, "播放错误: " + error, Toast.LENGTH_LONG).show();
-            playerManager.releasePlayer();
+            activeUpload = null;
+            playerManager.stopAndHide();
             infoContainer.setVisibility(View.VISIBLE);
+            refreshLatestCard();
         });
     }
 
@@ -235,14 +537,29 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (fileObserver != null) {
-            fileObserver.stopWatching();
+        cancelPendingUpload();
+        if (debugOverlay != null) {
+            debugOverlay.release();
+        }
+        libraryExecutor.shutdownNow();
+        qrCodeRenderer.shutdown();
+        if (thumbnailExtractor != null) {
+            thumbnailExtractor.shutdown();
+        }
+        if (mediaProcessor != null) {
+            mediaProcessor.shutdown();
+        }
+        if (serverManager != null) {
+            serverManager.removeEventListener(this);
         }
         if (playerManager != null) {
             playerManager.releasePlayer();
         }
+        if (mediaLibrary != null) {
+            mediaLibrary.shutdown();
+        }
         if (serverManager != null) {
-            serverManager.stopServer();
+            serverManager.stopServer(this);
         }
     }
 }
@@ -0,0 +1,235 @@
+package com.example.tvreceiver;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MediaLibrary {
+    private static final String TAG = "MediaLibrary";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private final File indexFile;
+    private final File journalFile;
+    private final File libraryDir;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private List<Entry> newestFirst = new ArrayList<>();
+    private long loadedModified = -1;
+    private long loadedLength = -1;
+    private long journalOffset = 0;
+
+    public static class Entry {
+        public final String id;
+        public final String name;
+        public final String file;
+        public final long size;
+        public final long durationMs;
+        public final String codec;
+        public final int width;
+        public final int height;
+        public final long bitrate;
+        public final long uploadedAt;
+        public final long lastPlayed;
+        public final String sha256;
+        public final String fingerprint;
+        public final String container;
+
+        Entry(JSONObject json) {
+            id = json.optString("id");
+            name = json.optString("name");
+            file = json.optString("file");
+            size = json.optLong("size");
+            durationMs = json.optLong("duration_ms");
+            codec = json.optString("codec");
+            width = json.optInt("width");
+            height = json.optInt("height");
+            bitrate = json.optLong("bitrate");
+            uploadedAt = json.optLong("uploaded_at");
+            lastPlayed = json.optLong("last_played");
+            sha256 = json.optString("sha256");
+            fingerprint = json.optString("fingerprint");
+            container = json.optString("container");
+        }
+
+        public String cacheKey() {
+            if (!sha256.isEmpty()) {
+                return "sha256:" + sha256;
+            }
+            if (!fingerprint.isEmpty()) {
+                return fingerprint;
+            }
+            return "id:" + id;
+        }
+    }
+
+    public MediaLibrary(String indexPath, String libraryDir) {
+        this.indexFile = new File(indexPath);
+        this.journalFile = new File(indexPath + JOURNAL_SUFFIX);
+        this.libraryDir = new File(libraryDir);
+    }
+
+    public synchronized void reload() {
+        long modified = indexFile.lastModified();
+        long length = indexFile.length();
+        boolean changed = false;
+        if (modified != loadedModified || length != loadedLength || journalFile.length() < journalOffset) {
+            if (!loadSnapshot()) {
+                return;
+            }
+            loadedModified = modified;
+            loadedLength = length;
+            changed = true;
+        }
+        if (journalFile.length() > journalOffset) {
+            changed |= replayJournal();
+        }
+        if (!changed) {
+            return;
+        }
+
+        List<Entry> ordered = new ArrayList<>(entries.values());
+        Collections.reverse(ordered);
+        newestFirst = ordered;
+        Log.i(TAG, "Library loaded: " + ordered.size() + " videos");
+    }
+
+    private boolean loadSnapshot() {
+        LinkedHashMap<String, Entry> byId = new LinkedHashMap<>();
+        try {
+            if (indexFile.exists()) {
+                JSONArray array = new JSONObject(readIndex()).optJSONArray("entries");
+                if (array != null) {
+                    for (int i = 0; i < array.length(); i++) {
+                        Entry entry = new Entry(array.getJSONObject(i));
+                        byId.put(entry.id, entry);
+                    }
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to read library index: " + e.getMessage());
+            return false;
+        }
+        entries = byId;
+        journalOffset = 0;
+        return true;
+    }
+
+    private boolean replayJournal() {
+        byte[] data;
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "r")) {
+            data = new byte[(int) (raf.length() - journalOffset)];
+            raf.seek(journalOffset);
+            raf.readFully(data);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read library journal: " + e.getMessage());
+            return false;
+        }
+
+        int applied = 0;
+        int start = 0;
+        for (int end = 0; end < data.length; end++) {
+            if (data[end] != '\n') {
+                continue;
+            }
+            String line = new String(data, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+            try {
+                JSONObject record = new JSONObject(line);
+                if ("put".equals(record.optString("op"))) {
+                    Entry entry = new Entry(record.getJSONObject("entry"));
+                    entries.put(entry.id, entry);
+                } else if ("delete".equals(record.optString("op"))) {
+                    entries.remove(record.optString("id"));
+                }
+                applied++;
+            } catch (JSONException e) {
+                Log.w(TAG, "Skipping library journal record: " + e.getMessage());
+            }
+        }
+        journalOffset += start;
+        return applied > 0;
+    }
+
+    private String readIndex() throws IOException {
+        try (InputStream is = new FileInputStream(indexFile)) {
+            byte[] data = new byte[(int) indexFile.length()];
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = is.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            return new String(data, 0, offset, StandardCharsets.UTF_8);
+        }
+    }
+
+    public synchronized Entry get(String id) {
+        reload();
+        return entries.get(id);
+    }
+
+    public synchronized List<Entry> list() {
+        reload();
+        return Collections.unmodifiableList(newestFirst);
+    }
+
+    public synchronized Entry latest() {
+        reload();
+        return newestFirst.isEmpty() ? null : newestFirst.get(0);
+    }
+
+    public String getPath(Entry entry) {
+        return new File(libraryDir, entry.file).getAbsolutePath();
+    }
+
+    public static String idFromPath(String videoPath) {
+        String name = new File(videoPath).getName();
+        int dot = name.indexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    public void markPlayed(String videoPath, int port) {
+        String id = idFromPath(videoPath);
+        executor.execute(() -> {
+            HttpURLConnection conn = null;
+            try {
+                URL url = new URL("http://127.0.0.1:" + port + "/library/played?id=" + id);
+                conn = (HttpURLConnection) url.openConnection();
+                conn.setRequestMethod("POST");
+                conn.setConnectTimeout(2000);
+                conn.setReadTimeout(2000);
+                int code = conn.getResponseCode();
+                if (code / 100 != 2) {
+                    Log.w(TAG, "Failed to mark played: " + id + " (HTTP " + code + ")");
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to mark played: " + e.getMessage());
+            } finally {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.tvreceiver;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class MediaProcessor {
+    private static final String TAG = "MediaProcessor";
+    private static final int QUEUE_DEPTH = 4;
+    static final String KEY_ROTATION = "rotation-degrees";
+
+    private static final Set<String> MP4_EXTENSIONS = new HashSet<>(Arrays.asList(".mp4", ".m4v", ".mov", ".3gp"));
+    private static final Set<String> MP4_CONTAINERS = new HashSet<>(Arrays.asList("mp4", "mov", "3gp"));
+    private static final Map<String, String> SERVER_CODECS = new HashMap<>();
+
+    static {
+        SERVER_CODECS.put("h264", MediaFormat.MIMETYPE_VIDEO_AVC);
+        SERVER_CODECS.put("hevc", MediaFormat.MIMETYPE_VIDEO_HEVC);
+        SERVER_CODECS.put("mpeg4", MediaFormat.MIMETYPE_VIDEO_MPEG4);
+        SERVER_CODECS.put("vp9", MediaFormat.MIMETYPE_VIDEO_VP9);
+        SERVER_CODECS.put("av1", "video/av01");
+    }
+
+    private static Set<String> hardwareDecoders;
+    private static Set<String> decoders;
+    private static final Set<String> MP4_CODECS = new HashSet<>(Arrays.asList(
+        MediaFormat.MIMETYPE_VIDEO_AVC, MediaFormat.MIMETYPE_VIDEO_HEVC, MediaFormat.MIMETYPE_VIDEO_MPEG4,
+        MediaFormat.MIMETYPE_VIDEO_H263, MediaFormat.MIMETYPE_AUDIO_AAC));
+
+    public interface Listener {
+        void onProcessingStarted(String videoPath, boolean transcoding);
+
+        void onProcessingProgress(String videoPath, boolean transcoding, int percent);
+
+        void onProcessed(String videoPath, String playablePath);
+    }
+
+    private enum Plan { AS_IS, REMUX, TRANSCODE }
+
+    private final GoServerManager serverManager;
+    private final MediaLibrary mediaLibrary;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_DEPTH),
+        runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "MediaProcessor"));
+
+    public MediaProcessor(GoServerManager serverManager, MediaLibrary mediaLibrary) {
+        this.serverManager = serverManager;
+        this.mediaLibrary = mediaLibrary;
+    }
+
+    public void process(String videoPath, Listener listener) {
+        try {
+            executor.execute(() -> {
+                String playable = processNow(videoPath, listener);
+                mainHandler.post(() -> listener.onProcessed(videoPath, playable));
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Processing queue full, playing " + videoPath + " as is");
+            listener.onProcessed(videoPath, videoPath);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private String processNow(String videoPath, Listener listener) {
+        if (playableAsIs(videoPath)) {
+            return videoPath;
+        }
+
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(videoPath);
+        } catch (IOException e) {
+            Log.i(TAG, "Container not readable by MediaExtractor, leaving to the player: " + videoPath);
+            extractor.release();
+            return videoPath;
+        }
+
+        int videoTrack = findTrack(extractor, "video/");
+        int audioTrack = findTrack(extractor, "audio/");
+        Plan plan = plan(videoPath, extractor, videoTrack, audioTrack);
+        extractor.release();
+        if (plan == Plan.AS_IS) {
+            return videoPath;
+        }
+
+        File input = new File(videoPath);
+        String id = MediaLibrary.idFromPath(videoPath);
+        File output = new File(input.getParentFile(), id + ".mp4.tmp");
+        boolean transcoding = plan == Plan.TRANSCODE;
+        mainHandler.post(() -> listener.onProcessingStarted(videoPath, transcoding));
+
+        long startedAt = SystemClock.elapsedRealtime();
+        try {
+            Progress progress = percent -> mainHandler.post(() -> listener.onProcessingProgress(videoPath, transcoding, percent));
+            if (transcoding) {
+                new Transcoder(videoPath, output, videoTrack, audioTrack, progress).run();
+            } else {
+                new Remuxer(videoPath, output, videoTrack, audioTrack, progress).run();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, (transcoding ? "Transcode" : "Remux") + " failed for " + videoPath, e);
+            output.delete();
+            return videoPath;
+        }
+        Log.i(TAG, (transcoding ? "Transcoded " : "Remuxed ") + input.getName() + " in "
+            + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+
+        if (!replaceInLibrary(id, output.getName())) {
+            output.delete();
+            return videoPath;
+        }
+        return new File(input.getParentFile(), id + ".mp4").getPath();
+    }
+
+    private boolean playableAsIs(String videoPath) {
+        MediaLibrary.Entry entry = mediaLibrary.get(MediaLibrary.idFromPath(videoPath));
+        if (entry == null || !MP4_CONTAINERS.contains(entry.container)) {
+            return false;
+        }
+        String mime = SERVER_CODECS.get(entry.codec);
+        return mime != null && hasDecoder(mime, true);
+    }
+
+    private Plan plan(String videoPath, MediaExtractor extractor, int videoTrack, int audioTrack) {
+        if (videoTrack < 0) {
+            return Plan.AS_IS;
+        }
+        String videoMime = extractor.getTrackFormat(videoTrack).getString(MediaFormat.KEY_MIME);
+        String audioMime = audioTrack >= 0 ? extractor.getTrackFormat(audioTrack).getString(MediaFormat.KEY_MIME) : null;
+
+        if (hasDecoder(videoMime, true)) {
+            boolean muxable = MP4_CODECS.contains(videoMime) && (audioMime == null || MP4_CODECS.contains(audioMime));
+            return muxable && !isMp4Container(videoPath) ? Plan.REMUX : Plan.AS_IS;
+        }
+        if (hasDecoder(videoMime, false)) {
+            Log.i(TAG, "No hardware decoder for " + videoMime + ", transcoding " + videoPath);
+            return Plan.TRANSCODE;
+        }
+        return Plan.AS_IS;
+    }
+
+    private static boolean isMp4Container(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot >= 0 && MP4_EXTENSIONS.contains(path.substring(dot).toLowerCase());
+    }
+
+    private static int findTrack(MediaExtractor extractor, String prefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(prefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasDecoder(String mime, boolean hardwareOnly) {
+        loadDecoders();
+        return (hardwareOnly ? hardwareDecoders : decoders).contains(mime.toLowerCase());
+    }
+
+    private static synchronized void loadDecoders() {
+        if (decoders != null) {
+            return;
+        }
+        Set<String> hardware = new HashSet<>();
+        Set<String> any = new HashSet<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                any.add(type.toLowerCase());
+                if (isHardware(info)) {
+                    hardware.add(type.toLowerCase());
+                }
+            }
+        }
+        hardwareDecoders = hardware;
+        decoders = any;
+    }
+
+    private static boolean isHardware(MediaCodecInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return info.isHardwareAccelerated();
+        }
+        String name = info.getName().toLowerCase();
+        return !name.startsWith("omx.google.") && !name.startsWith("c2.android.") && !name.contains(".sw.");
+    }
+
+    interface Progress {
+        void update(int percent);
+    }
+
+    private boolean replaceInLibrary(String id, String fileName) {
+        HttpURLConnection conn = null;
+        try {
+            URL url = new URL("http://127.0.0.1:" + serverManager.getPort()
+                + "/library/replace?id=" + id + "&file=" + fileName);
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("POST");
+            conn.setConnectTimeout(2000);
+            conn.setReadTimeout(60000);
+            int code = conn.getResponseCode();
+            if (code / 100 != 2) {
+                Log.w(TAG, "Server refused processed file " + fileName + " (HTTP " + code + ")");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to register processed file: " + e.getMessage());
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.tvreceiver;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+public class NetworkMonitor {
+    private static final String TAG = "NetworkMonitor";
+    private static final long SETTLE_DELAY_MS = 500;
+
+    public interface Listener {
+        void onAddressChanged(String ip);
+    }
+
+    private final ConnectivityManager connectivity;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<Network, NetworkCapabilities> capabilities = new HashMap<>();
+    private final Map<Network, LinkProperties> links = new HashMap<>();
+    private String lastAddress;
+    private boolean registered;
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            NetworkCapabilities networkCapabilities = connectivity.getNetworkCapabilities(network);
+            LinkProperties linkProperties = connectivity.getLinkProperties(network);
+            synchronized (NetworkMonitor.this) {
+                if (networkCapabilities != null) {
+                    capabilities.put(network, networkCapabilities);
+                }
+                if (linkProperties != null) {
+                    links.put(network, linkProperties);
+                }
+            }
+            scheduleCheck();
+        }
+
+        @Override
+        public void onLost(Network network) {
+            synchronized (NetworkMonitor.this) {
+                capabilities.remove(network);
+                links.remove(network);
+            }
+            scheduleCheck();
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+            synchronized (NetworkMonitor.this) {
+                capabilities.put(network, networkCapabilities);
+            }
+            scheduleCheck();
+        }
+
+        @Override
+        public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+            synchronized (NetworkMonitor.this) {
+                links.put(network, linkProperties);
+            }
+            scheduleCheck();
+        }
+    };
+
+    private final Runnable check = this::checkAddress;
+
+    public NetworkMonitor(Context context, Listener listener) {
+        this.connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    public synchronized void start(String currentAddress) {
+        lastAddress = currentAddress;
+        if (registered || connectivity == null) {
+            return;
+        }
+        NetworkRequest request = new NetworkRequest.Builder()
+            .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+            .addTransportType(NetworkCapabilities.TRANSPORT_ETHERNET)
+            .addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+            .removeCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+            .build();
+        try {
+            connectivity.registerNetworkCallback(request, callback);
+            registered = true;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to register network callback: " + e.getMessage());
+        }
+    }
+
+    public synchronized void stop() {
+        handler.removeCallbacks(check);
+        if (!registered) {
+            return;
+        }
+        try {
+            connectivity.unregisterNetworkCallback(callback);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to unregister network callback: " + e.getMessage());
+        }
+        registered = false;
+        capabilities.clear();
+        links.clear();
+    }
+
+    private void scheduleCheck() {
+        handler.removeCallbacks(check);
+        handler.postDelayed(check, SETTLE_DELAY_MS);
+    }
+
+    private void checkAddress() {
+        String address;
+        synchronized (this) {
+            address = trackedAddress();
+            if (!registered || address == null || address.equals(lastAddress)) {
+                return;
+            }
+            lastAddress = address;
+        }
+        Log.i(TAG, "LAN address changed: " + address);
+        listener.onAddressChanged(address);
+    }
+
+    private String trackedAddress() {
+        String best = null;
+        int bestRank = 0;
+        for (Map.Entry<Network, NetworkCapabilities> entry : capabilities.entrySet()) {
+            int rank = rank(entry.getValue());
+            if (rank <= bestRank) {
+                continue;
+            }
+            String address = ipv4Address(links.get(entry.getKey()));
+            if (address != null) {
+                best = address;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    public static String findLanAddress(Context context) {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) {
+            return null;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return bestAddress(connectivity);
+        }
+        Network network = connectivity.getActiveNetwork();
+        if (network == null || rank(connectivity.getNetworkCapabilities(network)) == 0) {
+            return null;
+        }
+        return ipv4Address(connectivity.getLinkProperties(network));
+    }
+
+    private static String bestAddress(ConnectivityManager connectivity) {
+        String best = null;
+        int bestRank = 0;
+        for (Network network : connectivity.getAllNetworks()) {
+            int rank = rank(connectivity.getNetworkCapabilities(network));
+            if (rank <= bestRank) {
+                continue;
+            }
+            String address = ipv4Address(connectivity.getLinkProperties(network));
+            if (address != null) {
+                best = address;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    private static int rank(NetworkCapabilities caps) {
+        if (caps == null || caps.hasTransport(NetworkCapabilities.TRANSPORT_VPN)) {
+            return 0;
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return 2;
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static String ipv4Address(LinkProperties link) {
+        if (link == null) {
+            return null;
+        }
+        for (LinkAddress linkAddress : link.getLinkAddresses()) {
+            InetAddress address = linkAddress.getAddress();
+            if (address instanceof Inet4Address && !address.isLoopbackAddress() && !address.isLinkLocalAddress()) {
+                return address.getHostAddress();
+            }
+        }
+        return null;
+    }
+}
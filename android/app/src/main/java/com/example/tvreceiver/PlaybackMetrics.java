@@ -0,0 +1,102 @@
+package com.example.tvreceiver;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+
+import java.util.Locale;
+
+public class PlaybackMetrics implements AnalyticsListener {
+    private static final String TAG = "PlaybackMetrics";
+
+    private long requestedAt = -1;
+    private long timeToFirstFrameMs = -1;
+    private boolean firstReady;
+    private long rebufferStartedAt = -1;
+    private int rebufferCount;
+    private long rebufferTotalMs;
+    private long droppedFrames;
+    private long decoderInitMs = -1;
+    private String decoderName = "";
+
+    public synchronized void onPlaybackRequested() {
+        requestedAt = SystemClock.elapsedRealtime();
+        timeToFirstFrameMs = -1;
+        firstReady = false;
+        rebufferStartedAt = -1;
+    }
+
+    @Override
+    public synchronized void onRenderedFirstFrame(EventTime eventTime, Object output, long renderTimeMs) {
+        if (requestedAt >= 0 && timeToFirstFrameMs < 0) {
+            timeToFirstFrameMs = SystemClock.elapsedRealtime() - requestedAt;
+            Log.i(TAG, "Time to first frame: " + timeToFirstFrameMs + " ms");
+        }
+    }
+
+    @Override
+    public synchronized void onPlaybackStateChanged(EventTime eventTime, int state) {
+        long now = SystemClock.elapsedRealtime();
+        if (state == Player.STATE_BUFFERING && firstReady && rebufferStartedAt < 0) {
+            rebufferStartedAt = now;
+            rebufferCount++;
+        } else if (state == Player.STATE_READY) {
+            firstReady = true;
+            if (rebufferStartedAt >= 0) {
+                rebufferTotalMs += now - rebufferStartedAt;
+                rebufferStartedAt = -1;
+            }
+        } else if (state == Player.STATE_IDLE || state == Player.STATE_ENDED) {
+            rebufferStartedAt = -1;
+            firstReady = false;
+        }
+    }
+
+    @Override
+    public synchronized void onDroppedVideoFrames(EventTime eventTime, int count, long elapsedMs) {
+        droppedFrames += count;
+    }
+
+    @Override
+    public synchronized void onVideoDecoderInitialized(EventTime eventTime, String name,
+            long initializedTimestampMs, long initializationDurationMs) {
+        decoderName = name;
+        decoderInitMs = initializationDurationMs;
+        Log.i(TAG, "Decoder " + name + " initialized in " + initializationDurationMs + " ms");
+    }
+
+    public synchronized long getTimeToFirstFrameMs() {
+        return timeToFirstFrameMs;
+    }
+
+    public synchronized int getRebufferCount() {
+        return rebufferCount;
+    }
+
+    public synchronized long getRebufferTotalMs() {
+        long total = rebufferTotalMs;
+        if (rebufferStartedAt >= 0) {
+            total += SystemClock.elapsedRealtime() - rebufferStartedAt;
+        }
+        return total;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public synchronized long getDecoderInitMs() {
+        return decoderInitMs;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US,
+            "TTFF %s | rebuffer %d (%d ms) | dropped %d | decoder %s %s",
+            timeToFirstFrameMs >= 0 ? timeToFirstFrameMs + " ms" : "-",
+            rebufferCount, getRebufferTotalMs(), droppedFrames,
+            decoderName.isEmpty() ? "-" : decoderName,
+            decoderInitMs >= 0 ? decoderInitMs + " ms" : "");
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.tvreceiver;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+public class ProgressiveUpload {
+    private static final String TAG = "ProgressiveUpload";
+    private static final long MIN_START_BYTES = 2 * 1024 * 1024;
+    private static final long GROWTH_POLL_MS = 50;
+
+    public enum State {
+        READY,
+        PENDING,
+        UNSUPPORTED
+    }
+
+    private volatile File file;
+    private final Object lock = new Object();
+    private boolean completed = false;
+    private boolean aborted = false;
+    private long available = Long.MAX_VALUE;
+
+    public ProgressiveUpload(String tempPath) {
+        this.file = new File(tempPath);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void markCompleted(String finalPath) {
+        synchronized (lock) {
+            file = new File(finalPath);
+            completed = true;
+            lock.notifyAll();
+        }
+        Log.i(TAG, "Upload completed: " + finalPath);
+    }
+
+    public void markAborted() {
+        synchronized (lock) {
+            aborted = true;
+            lock.notifyAll();
+        }
+        Log.w(TAG, "Upload aborted: " + file);
+    }
+
+    public void setAvailable(long bytes) {
+        synchronized (lock) {
+            available = bytes;
+            lock.notifyAll();
+        }
+    }
+
+    public long readableLength(long length) {
+        synchronized (lock) {
+            return completed ? length : Math.min(length, available);
+        }
+    }
+
+    public boolean isCompleted() {
+        synchronized (lock) {
+            return completed;
+        }
+    }
+
+    public boolean isAborted() {
+        synchronized (lock) {
+            return aborted;
+        }
+    }
+
+    public void awaitGrowth() throws IOException {
+        synchronized (lock) {
+            if (aborted) {
+                throw new IOException("Upload aborted: " + file);
+            }
+            if (completed) {
+                return;
+            }
+            try {
+                lock.wait(GROWTH_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload data");
+            }
+        }
+    }
+
+    public State probe() {
+        if (isAborted()) {
+            return State.UNSUPPORTED;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = readableLength(raf.length());
+            if (length < 8) {
+                return State.PENDING;
+            }
+
+            byte[] header = new byte[16];
+            raf.readFully(header, 0, 8);
+            if (!"ftyp".equals(new String(header, 4, 4, "US-ASCII"))) {
+                return length >= MIN_START_BYTES ? State.READY : State.PENDING;
+            }
+
+            long offset = 0;
+            while (offset + 8 <= length) {
+                raf.seek(offset);
+                raf.readFully(header, 0, 8);
+                long size = readUInt32(header, 0);
+                String type = new String(header, 4, 4, "US-ASCII");
+                if (size == 1) {
+                    if (offset + 16 > length) {
+                        return State.PENDING;
+                    }
+                    raf.readFully(header, 8, 8);
+                    size = (readUInt32(header, 8) << 32) | readUInt32(header, 12);
+                } else if (size == 0) {
+                    size = Long.MAX_VALUE - offset;
+                }
+                if (size < 8) {
+                    return State.UNSUPPORTED;
+                }
+
+                if ("moov".equals(type)) {
+                    return offset + size <= length ? State.READY : State.PENDING;
+                }
+                if ("mdat".equals(type)) {
+                    Log.i(TAG, "moov follows mdat, waiting for full upload");
+                    return State.UNSUPPORTED;
+                }
+                offset += size;
+            }
+            return State.PENDING;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to probe upload: " + e.getMessage());
+            return State.PENDING;
+        }
+    }
+
+    private static long readUInt32(byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24)
+            | ((data[offset + 1] & 0xFFL) << 16)
+            | ((data[offset + 2] & 0xFFL) << 8)
+            | (data[offset + 3] & 0xFFL);
+    }
+}
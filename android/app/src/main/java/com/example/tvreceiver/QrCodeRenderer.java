@@ -0,0 +1,80 @@
+package com.example.tvreceiver;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.zxing.WriterException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class QrCodeRenderer {
+    private static final String TAG = "QrCodeRenderer";
+    private static final int CACHE_ENTRIES = 4;
+
+    public interface Callback {
+        void onQrCodeReady(String text, Bitmap bitmap);
+
+        void onQrCodeFailed(String text, Exception error);
+    }
+
+    private static final LruCache<String, Bitmap> cache = new LruCache<>(CACHE_ENTRIES);
+
+    private final int size;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, "QrCodeRenderer"));
+
+    public QrCodeRenderer(int size) {
+        this.size = size;
+    }
+
+    public void render(String text, Callback callback) {
+        Bitmap cached = cache.get(cacheKey(text));
+        if (cached != null) {
+            callback.onQrCodeReady(text, cached);
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                Bitmap bitmap = renderNow(text);
+                cache.put(cacheKey(text), bitmap);
+                mainHandler.post(() -> callback.onQrCodeReady(text, bitmap));
+            } catch (WriterException | RuntimeException e) {
+                mainHandler.post(() -> callback.onQrCodeFailed(text, e));
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private String cacheKey(String text) {
+        return size + ":" + text;
+    }
+
+    private Bitmap renderNow(String text) throws WriterException {
+        long startedAt = SystemClock.elapsedRealtime();
+        QrCodeMatrix matrix = QrCodeMatrix.encode(text);
+        int width = matrix.width;
+        int height = matrix.height;
+
+        Bitmap modules = Bitmap.createBitmap(matrix.pixels, width, height, Bitmap.Config.ARGB_8888);
+        int scale = Math.max(1, size / width);
+        Bitmap bitmap = Bitmap.createScaledBitmap(modules, width * scale, height * scale, false);
+        if (bitmap != modules) {
+            modules.recycle();
+        }
+        Log.i(TAG, "QR code for " + text + " rendered in " + (SystemClock.elapsedRealtime() - startedAt)
+            + " ms (" + width + " modules, " + bitmap.getWidth() + " px)");
+        return bitmap;
+    }
+}
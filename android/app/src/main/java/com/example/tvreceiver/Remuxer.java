@@ -0,0 +1,93 @@
+package com.example.tvreceiver;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+final class Remuxer {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final String input;
+    private final File output;
+    private final int videoTrack;
+    private final int audioTrack;
+    private final MediaProcessor.Progress progress;
+
+    Remuxer(String input, File output, int videoTrack, int audioTrack, MediaProcessor.Progress progress) {
+        this.input = input;
+        this.output = output;
+        this.videoTrack = videoTrack;
+        this.audioTrack = audioTrack;
+        this.progress = progress;
+    }
+
+    void run() throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        try {
+            extractor.setDataSource(input);
+            muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+            int[] muxTracks = new int[extractor.getTrackCount()];
+            Arrays.fill(muxTracks, -1);
+            int bufferSize = BUFFER_SIZE;
+            for (int track : new int[] {videoTrack, audioTrack}) {
+                if (track < 0) {
+                    continue;
+                }
+                MediaFormat format = extractor.getTrackFormat(track);
+                extractor.selectTrack(track);
+                muxTracks[track] = muxer.addTrack(format);
+                if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                    bufferSize = Math.max(bufferSize, format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+                }
+                if (track == videoTrack && format.containsKey(MediaProcessor.KEY_ROTATION)) {
+                    muxer.setOrientationHint(format.getInteger(MediaProcessor.KEY_ROTATION));
+                }
+            }
+            muxer.start();
+
+            MediaFormat videoFormat = extractor.getTrackFormat(videoTrack);
+            long duration = videoFormat.containsKey(MediaFormat.KEY_DURATION) ? videoFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+            int lastPercent = -1;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            while (true) {
+                int track = extractor.getSampleTrackIndex();
+                if (track < 0) {
+                    break;
+                }
+                info.offset = 0;
+                info.size = extractor.readSampleData(buffer, 0);
+                if (info.size < 0) {
+                    break;
+                }
+                info.presentationTimeUs = extractor.getSampleTime();
+                info.flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                    ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                muxer.writeSampleData(muxTracks[track], buffer, info);
+                extractor.advance();
+
+                if (duration > 0 && track == videoTrack) {
+                    int percent = (int) Math.min(100, info.presentationTimeUs * 100 / duration);
+                    if (percent != lastPercent) {
+                        lastPercent = percent;
+                        progress.update(percent);
+                    }
+                }
+            }
+            muxer.stop();
+        } finally {
+            if (muxer != null) {
+                muxer.release();
+            }
+            extractor.release();
+        }
+    }
+}
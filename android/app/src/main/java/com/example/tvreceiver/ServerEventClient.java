@@ -0,0 +1,104 @@
+package com.example.tvreceiver;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class ServerEventClient {
+    private static final String TAG = "ServerEventClient";
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int READ_TIMEOUT_MS = 45000;
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final String EVENT_PREFIX = "event:";
+    private static final String DATA_PREFIX = "data:";
+
+    private final ServerEvents events;
+    private volatile Thread thread;
+    private volatile HttpURLConnection connection;
+
+    public ServerEventClient(ServerEvents events) {
+        this.events = events;
+    }
+
+    public synchronized void connect(int port) {
+        disconnect();
+        Thread worker = new Thread(() -> run(port), "ServerEvents");
+        worker.setDaemon(true);
+        thread = worker;
+        worker.start();
+    }
+
+    public synchronized void disconnect() {
+        Thread worker = thread;
+        thread = null;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        HttpURLConnection conn = connection;
+        if (conn != null) {
+            conn.disconnect();
+        }
+    }
+
+    private boolean isCurrent() {
+        return thread == Thread.currentThread();
+    }
+
+    private void run(int port) {
+        while (isCurrent()) {
+            try {
+                readStream(port);
+            } catch (IOException e) {
+                if (isCurrent()) {
+                    Log.w(TAG, "Event stream interrupted: " + e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void readStream(int port) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + port + "/events");
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
+        conn.setRequestProperty("Accept", "text/event-stream");
+        connection = conn;
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+            Log.i(TAG, "Connected to event stream on port " + port);
+            String kind = null;
+            StringBuilder data = new StringBuilder();
+            String line;
+            while (isCurrent() && (line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    if (kind != null && data.length() > 0) {
+                        events.publish(kind, data.toString());
+                    }
+                    kind = null;
+                    data.setLength(0);
+                } else if (line.startsWith(EVENT_PREFIX)) {
+                    kind = line.substring(EVENT_PREFIX.length()).trim();
+                } else if (line.startsWith(DATA_PREFIX)) {
+                    if (data.length() > 0) {
+                        data.append('\n');
+                    }
+                    data.append(line.substring(DATA_PREFIX.length()).trim());
+                }
+            }
+        } finally {
+            connection = null;
+            conn.disconnect();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.tvreceiver;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ServerEvents {
+    private static final String TAG = "ServerEvents";
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public interface Listener {
+        void onVideoReady(String videoPath);
+
+        default void onUploadStarted(String tempPath, String name, long size, boolean queued, boolean streamable) {
+        }
+
+        default void onUploadProgress(String tempPath, long written, long available, long size) {
+        }
+
+        default void onUploadAborted(String tempPath) {
+        }
+
+        default void onUploadCompleted(String tempPath, String finalPath) {
+        }
+
+        default void onStreamRequested(String url) {
+        }
+
+        default void onVideoEnqueued(String videoPathOrUrl) {
+        }
+
+        default void onMetadataUpdated(String id, String key, long durationMs) {
+        }
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void publish(String kind, String payload) {
+        JSONObject event;
+        try {
+            event = new JSONObject(payload);
+        } catch (JSONException e) {
+            Log.e(TAG, "Malformed " + kind + " event: " + payload, e);
+            return;
+        }
+        if (!kind.equals("upload_progress")) {
+            Log.i(TAG, "Event " + kind + ": " + payload);
+        }
+        for (Listener listener : listeners) {
+            try {
+                dispatch(listener, kind, event);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Listener failed for " + kind + " event", e);
+            }
+        }
+    }
+
+    private static void dispatch(Listener listener, String kind, JSONObject event) {
+        switch (kind) {
+            case "upload_started":
+                listener.onUploadStarted(event.optString("path"), event.optString("name"),
+                    event.optLong("size"), event.optBoolean("enqueue"), !"moov_last".equals(event.optString("layout")));
+                break;
+            case "upload_progress":
+                listener.onUploadProgress(event.optString("path"), event.optLong("written"),
+                    event.optLong("available", -1), event.optLong("size"));
+                break;
+            case "upload_aborted":
+                listener.onUploadAborted(event.optString("path"));
+                break;
+            case "upload_completed":
+                if (!event.optString("temp_path").isEmpty()) {
+                    listener.onUploadCompleted(event.optString("temp_path"), event.optString("path"));
+                }
+                if (event.optBoolean("enqueue")) {
+                    listener.onVideoEnqueued(event.optString("path"));
+                } else {
+                    listener.onVideoReady(event.optString("path"));
+                }
+                break;
+            case "play":
+                dispatchPlay(listener, event);
+                break;
+            case "metadata":
+                listener.onMetadataUpdated(event.optString("id"), event.optString("key"), event.optLong("duration_ms"));
+                break;
+            default:
+                Log.d(TAG, "Ignoring event: " + kind);
+        }
+    }
+
+    private static void dispatchPlay(Listener listener, JSONObject event) {
+        String url = event.optString("url");
+        String target = url.isEmpty() ? event.optString("path") : url;
+        if (target.isEmpty()) {
+            return;
+        }
+        if (event.optBoolean("enqueue")) {
+            listener.onVideoEnqueued(target);
+        } else if (!url.isEmpty()) {
+            listener.onStreamRequested(url);
+        } else {
+            listener.onVideoReady(target);
+        }
+    }
+}
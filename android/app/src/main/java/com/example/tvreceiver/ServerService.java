@@ -17,7 +17,10 @@ public class ServerService extends Service implements GoServerManager.ServerCall
     private static final int NOTIFICATION_ID = 1001;
 
     private GoServerManager serverManager;
-    private VideoFileObserver fileObserver;
+    private final ServerEvents.Listener videoListener = path -> {
+        Log.i(TAG, "Video received: " + path);
+        notifyVideoReceived(path);
+    };
 
     public static final String ACTION_VIDEO_RECEIVED = "com.example.tvreceiver.VIDEO_RECEIVED";
     public static final String EXTRA_VIDEO_PATH = "video_path";
@@ -28,7 +31,8 @@ public class ServerService extends Service implements GoServerManager.ServerCall
         createNotificationChannel();
         startForeground(NOTIFICATION_ID, createNotification());
 
-        serverManager = new GoServerManager(this);
+        serverManager = GoServerManager.getInstance(this);
+        serverManager.addEventListener(videoListener);
         serverManager.startServer(this);
     }
 
@@ -45,18 +49,21 @@ public class ServerService extends Service implements GoServerManager.ServerCall
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (fileObserver != null) {
-            fileObserver.stopWatching();
-        }
         if (serverManager != null) {
-            serverManager.stopServer();
+            serverManager.removeEventListener(videoListener);
+            serverManager.stopServer(this);
         }
     }
 
     @Override
     public void onServerStarted(String ip, int port) {
         Log.i(TAG, "Server started: " + ip + ":" + port);
-        setupFileObserver();
+        updateNotification("服务器运行中: " + ip + ":" + port);
+    }
+
+    @Override
+    public void onAddressChanged(String ip, int port) {
+        Log.i(TAG, "Server address changed: " + ip + ":" + port);
         updateNotification("服务器运行中: " + ip + ":" + port);
     }
 
@@ -71,15 +78,6 @@ public class ServerService extends Service implements GoServerManager.ServerCall
         Log.i(TAG, "Device architecture detected: " + arch);
     }
 
-    private void setupFileObserver() {
-        String videoPath = serverManager.getVideoPath();
-        fileObserver = new VideoFileObserver(videoPath, path -> {
-            Log.i(TAG, "Video received: " + path);
-            notifyVideoReceived(path);
-        });
-        fileObserver.startWatching();
-    }
-
     private void notifyVideoReceived(String videoPath) {
         Intent intent = new Intent(ACTION_VIDEO_RECEIVED);
         intent.putExtra(EXTRA_VIDEO_PATH, videoPath);
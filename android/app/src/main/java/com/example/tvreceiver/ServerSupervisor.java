@@ -0,0 +1,209 @@
+package com.example.tvreceiver;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ServerSupervisor {
+    private static final String TAG = "ServerSupervisor";
+    private static final long BASE_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60000;
+    private static final double JITTER = 0.2;
+    private static final long STABLE_UPTIME_MS = 60000;
+    private static final long HEALTH_INTERVAL_MS = 15000;
+    private static final int HEALTH_TIMEOUT_MS = 2000;
+    private static final int MAX_HEALTH_FAILURES = 3;
+
+    private final GoServerManager manager;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ServerSupervisor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Random random = new Random();
+
+    private boolean enabled;
+    private int attempt;
+    private long startedAt = -1;
+    private long downSince = -1;
+    private int restartCount;
+    private long downtimeMs;
+    private int lastExitCode = Integer.MIN_VALUE;
+    private int healthFailures;
+    private ScheduledFuture<?> pendingRestart;
+    private ScheduledFuture<?> healthCheck;
+
+    public ServerSupervisor(GoServerManager manager) {
+        this.manager = manager;
+    }
+
+    public synchronized void enable() {
+        enabled = true;
+        if (pendingRestart != null) {
+            pendingRestart.cancel(false);
+            pendingRestart = null;
+        }
+    }
+
+    public synchronized void disable() {
+        enabled = false;
+        cancel();
+        startedAt = -1;
+        downSince = -1;
+    }
+
+    public void watch(Process process) {
+        Thread watcher = new Thread(() -> {
+            int code;
+            try {
+                code = process.waitFor();
+            } catch (InterruptedException e) {
+                return;
+            }
+            manager.onProcessExited(process, code);
+        }, "ServerWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public synchronized void onStarted() {
+        long now = SystemClock.elapsedRealtime();
+        if (downSince >= 0) {
+            downtimeMs += now - downSince;
+            downSince = -1;
+        }
+        startedAt = now;
+        healthFailures = 0;
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+        healthCheck = scheduler.scheduleWithFixedDelay(this::checkHealth,
+            HEALTH_INTERVAL_MS, HEALTH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void onExited(int exitCode) {
+        lastExitCode = exitCode;
+        Log.w(TAG, "Server exited with code " + exitCode);
+        onDown();
+    }
+
+    public synchronized void onStartFailed() {
+        onDown();
+    }
+
+    private void onDown() {
+        long now = SystemClock.elapsedRealtime();
+        if (startedAt >= 0 && now - startedAt >= STABLE_UPTIME_MS) {
+            attempt = 0;
+        }
+        startedAt = -1;
+        if (downSince < 0) {
+            downSince = now;
+        }
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+            healthCheck = null;
+        }
+        scheduleRestart();
+    }
+
+    private void scheduleRestart() {
+        if (!enabled || (pendingRestart != null && !pendingRestart.isDone())) {
+            return;
+        }
+        long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 16));
+        long delay = (long) (backoff * (1 - JITTER + 2 * JITTER * random.nextDouble()));
+        attempt++;
+        Log.i(TAG, "Restarting server in " + delay + " ms (attempt " + attempt + ")");
+        pendingRestart = scheduler.schedule(this::restart, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void restart() {
+        synchronized (this) {
+            pendingRestart = null;
+            if (!enabled) {
+                return;
+            }
+            restartCount++;
+        }
+        manager.restartServer();
+    }
+
+    private void checkHealth() {
+        if (probe()) {
+            synchronized (this) {
+                healthFailures = 0;
+            }
+            return;
+        }
+        synchronized (this) {
+            healthFailures++;
+            Log.w(TAG, "Health check failed (" + healthFailures + "/" + MAX_HEALTH_FAILURES + ")");
+            if (healthFailures < MAX_HEALTH_FAILURES || !enabled) {
+                return;
+            }
+            Log.e(TAG, "Server is not responding, restarting");
+            onDown();
+        }
+    }
+
+    private boolean probe() {
+        HttpURLConnection conn = null;
+        try {
+            URL url = new URL("http://127.0.0.1:" + manager.getPort() + "/healthz");
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(HEALTH_TIMEOUT_MS);
+            conn.setReadTimeout(HEALTH_TIMEOUT_MS);
+            return conn.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private void cancel() {
+        if (pendingRestart != null) {
+            pendingRestart.cancel(false);
+            pendingRestart = null;
+        }
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+            healthCheck = null;
+        }
+    }
+
+    public synchronized int getRestartCount() {
+        return restartCount;
+    }
+
+    public synchronized long getDowntimeMs() {
+        long total = downtimeMs;
+        if (downSince >= 0) {
+            total += SystemClock.elapsedRealtime() - downSince;
+        }
+        return total;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "supervisor: restarts %d | downtime %.1f s | last exit %s",
+            restartCount, getDowntimeMs() / 1000.0,
+            lastExitCode == Integer.MIN_VALUE ? "-" : String.valueOf(lastExitCode));
+    }
+
+    public void shutdown() {
+        disable();
+        scheduler.shutdownNow();
+    }
+}
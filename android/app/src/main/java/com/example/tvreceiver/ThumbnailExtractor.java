@@ -0,0 +1,168 @@
+package com.example.tvreceiver;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class ThumbnailExtractor {
+    private static final String TAG = "ThumbnailExtractor";
+    private static final int QUEUE_DEPTH = 8;
+    private static final int THUMB_WIDTH = 320;
+    private static final int JPEG_QUALITY = 80;
+    private static final int[] FRAME_PERCENTS = {10, 50, 90};
+
+    public interface Callback {
+        void onThumbnailsReady(String id);
+    }
+
+    private final File thumbDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Set<String> inFlight = Collections.synchronizedSet(new HashSet<>());
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_DEPTH),
+        runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "ThumbnailExtractor"),
+        this::rejected);
+
+    public ThumbnailExtractor(String thumbDir) {
+        this.thumbDir = new File(thumbDir);
+    }
+
+    public File getThumbnail(MediaLibrary.Entry entry, int index) {
+        return new File(thumbDir, entry.cacheKey().replace(':', '_') + "_" + index + ".jpg");
+    }
+
+    public boolean hasThumbnails(MediaLibrary.Entry entry) {
+        return getThumbnail(entry, FRAME_PERCENTS.length - 1).exists();
+    }
+
+    public void extract(MediaLibrary.Entry entry, String videoPath, Callback callback) {
+        if (hasThumbnails(entry) || !inFlight.add(entry.cacheKey())) {
+            return;
+        }
+        executor.execute(new ExtractTask(entry.cacheKey(), () -> {
+            try {
+                if (extractNow(entry, videoPath)) {
+                    mainHandler.post(() -> callback.onThumbnailsReady(entry.id));
+                }
+            } finally {
+                inFlight.remove(entry.cacheKey());
+            }
+        }));
+    }
+
+    public void shutdown() {
+        for (Runnable pending : executor.shutdownNow()) {
+            forget(pending);
+        }
+    }
+
+    private void rejected(Runnable runnable, ThreadPoolExecutor pool) {
+        if (pool.isShutdown()) {
+            forget(runnable);
+            return;
+        }
+        Runnable oldest = pool.getQueue().poll();
+        if (oldest != null) {
+            forget(oldest);
+        }
+        pool.execute(runnable);
+    }
+
+    private void forget(Runnable runnable) {
+        if (runnable instanceof ExtractTask) {
+            String key = ((ExtractTask) runnable).key;
+            inFlight.remove(key);
+            Log.i(TAG, "Dropped thumbnail request for " + key);
+        }
+    }
+
+    private static final class ExtractTask implements Runnable {
+        final String key;
+        private final Runnable body;
+
+        ExtractTask(String key, Runnable body) {
+            this.key = key;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            body.run();
+        }
+    }
+
+    private boolean extractNow(MediaLibrary.Entry entry, String videoPath) {
+        long startedAt = SystemClock.elapsedRealtime();
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(videoPath);
+            long durationMs = entry.durationMs;
+            if (durationMs <= 0) {
+                String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+                durationMs = duration != null ? Long.parseLong(duration) : 0;
+            }
+
+            for (int i = 0; i < FRAME_PERCENTS.length; i++) {
+                long timeUs = durationMs * 1000 * FRAME_PERCENTS[i] / 100;
+                Bitmap frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+                if (frame == null) {
+                    Log.w(TAG, "No frame at " + FRAME_PERCENTS[i] + "% of " + entry.name);
+                    return false;
+                }
+                writeThumbnail(scale(frame), getThumbnail(entry, i));
+            }
+            Log.i(TAG, "Thumbnails for " + entry.name + " extracted in "
+                + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+            return true;
+        } catch (RuntimeException | IOException e) {
+            Log.w(TAG, "Failed to extract thumbnails for " + entry.name + ": " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Failed to release retriever", e);
+            }
+        }
+    }
+
+    private static Bitmap scale(Bitmap frame) {
+        if (frame.getWidth() <= THUMB_WIDTH) {
+            return frame;
+        }
+        int height = frame.getHeight() * THUMB_WIDTH / frame.getWidth();
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, THUMB_WIDTH, height, true);
+        frame.recycle();
+        return scaled;
+    }
+
+    private static void writeThumbnail(Bitmap bitmap, File target) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } finally {
+            bitmap.recycle();
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+}
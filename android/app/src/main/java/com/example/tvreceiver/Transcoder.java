@@ -0,0 +1,381 @@
+package com.example.tvreceiver;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+final class Transcoder {
+    private static final String TAG = "Transcoder";
+    private static final long TIMEOUT_US = 10000;
+    private static final String OUTPUT_VIDEO_MIME = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final String OUTPUT_AUDIO_MIME = MediaFormat.MIMETYPE_AUDIO_AAC;
+    private static final int DEFAULT_FRAME_RATE = 30;
+    private static final int AUDIO_BIT_RATE = 128000;
+
+    private static final class PendingSample {
+        final boolean video;
+        final byte[] data;
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        PendingSample(boolean video, ByteBuffer buffer, MediaCodec.BufferInfo source) {
+            this.video = video;
+            this.data = new byte[source.size];
+            buffer.position(source.offset);
+            buffer.get(data);
+            info.set(0, source.size, source.presentationTimeUs, source.flags);
+        }
+    }
+
+    private final String input;
+    private final File output;
+    private final int videoTrack;
+    private final int audioTrack;
+    private final MediaProcessor.Progress progress;
+
+    private MediaExtractor videoExtractor;
+    private MediaExtractor audioExtractor;
+    private MediaCodec videoDecoder;
+    private MediaCodec videoEncoder;
+    private MediaCodec audioDecoder;
+    private MediaCodec audioEncoder;
+    private Surface inputSurface;
+    private MediaMuxer muxer;
+
+    private boolean audioPassthrough;
+    private int audioSampleRate;
+    private int audioChannels;
+    private int muxVideo = -1;
+    private int muxAudio = -1;
+    private boolean muxing;
+    private final List<PendingSample> pending = new ArrayList<>();
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private ByteBuffer passthroughBuffer;
+
+    private boolean videoExtractDone;
+    private boolean videoDecodeDone;
+    private boolean videoEncodeDone;
+    private boolean audioExtractDone;
+    private boolean audioDecodeDone;
+    private boolean audioEncodeDone;
+    private long durationUs;
+    private int lastPercent = -1;
+
+    Transcoder(String input, File output, int videoTrack, int audioTrack, MediaProcessor.Progress progress) {
+        this.input = input;
+        this.output = output;
+        this.videoTrack = videoTrack;
+        this.audioTrack = audioTrack;
+        this.progress = progress;
+    }
+
+    void run() throws IOException {
+        try {
+            setUp();
+            while (!videoEncodeDone || !audioEncodeDone) {
+                feedVideoDecoder();
+                drainVideoDecoder();
+                drainVideoEncoder();
+                if (audioPassthrough) {
+                    copyAudio();
+                } else if (!audioEncodeDone) {
+                    feedAudioDecoder();
+                    drainAudioDecoder();
+                    drainAudioEncoder();
+                }
+            }
+            muxer.stop();
+        } finally {
+            release();
+        }
+    }
+
+    private void setUp() throws IOException {
+        muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+        videoExtractor = new MediaExtractor();
+        videoExtractor.setDataSource(input);
+        videoExtractor.selectTrack(videoTrack);
+        MediaFormat videoFormat = videoExtractor.getTrackFormat(videoTrack);
+        durationUs = videoFormat.containsKey(MediaFormat.KEY_DURATION) ? videoFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+        if (videoFormat.containsKey(MediaProcessor.KEY_ROTATION)) {
+            muxer.setOrientationHint(videoFormat.getInteger(MediaProcessor.KEY_ROTATION));
+        }
+
+        int width = videoFormat.getInteger(MediaFormat.KEY_WIDTH) & ~1;
+        int height = videoFormat.getInteger(MediaFormat.KEY_HEIGHT) & ~1;
+        int frameRate = videoFormat.containsKey(MediaFormat.KEY_FRAME_RATE)
+            ? videoFormat.getInteger(MediaFormat.KEY_FRAME_RATE) : DEFAULT_FRAME_RATE;
+        MediaFormat encoderFormat = MediaFormat.createVideoFormat(OUTPUT_VIDEO_MIME, width, height);
+        encoderFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        encoderFormat.setInteger(MediaFormat.KEY_BIT_RATE, Math.max(2000000, width * height * 4));
+        encoderFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        encoderFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        videoEncoder = MediaCodec.createEncoderByType(OUTPUT_VIDEO_MIME);
+        videoEncoder.configure(encoderFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        inputSurface = videoEncoder.createInputSurface();
+        videoEncoder.start();
+
+        videoDecoder = MediaCodec.createDecoderByType(videoFormat.getString(MediaFormat.KEY_MIME));
+        videoDecoder.configure(videoFormat, inputSurface, null, 0);
+        videoDecoder.start();
+
+        if (audioTrack < 0) {
+            audioExtractDone = audioDecodeDone = audioEncodeDone = true;
+            return;
+        }
+        audioExtractor = new MediaExtractor();
+        audioExtractor.setDataSource(input);
+        audioExtractor.selectTrack(audioTrack);
+        MediaFormat audioFormat = audioExtractor.getTrackFormat(audioTrack);
+        String audioMime = audioFormat.getString(MediaFormat.KEY_MIME);
+        audioPassthrough = OUTPUT_AUDIO_MIME.equals(audioMime);
+        if (audioPassthrough) {
+            muxAudio = muxer.addTrack(audioFormat);
+            int maxSize = audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? audioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 64 * 1024;
+            passthroughBuffer = ByteBuffer.allocateDirect(maxSize);
+            return;
+        }
+
+        audioSampleRate = audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        audioChannels = audioFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        MediaFormat aacFormat = MediaFormat.createAudioFormat(OUTPUT_AUDIO_MIME, audioSampleRate, audioChannels);
+        aacFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        aacFormat.setInteger(MediaFormat.KEY_BIT_RATE, AUDIO_BIT_RATE);
+        audioEncoder = MediaCodec.createEncoderByType(OUTPUT_AUDIO_MIME);
+        audioEncoder.configure(aacFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        audioEncoder.start();
+
+        audioDecoder = MediaCodec.createDecoderByType(audioMime);
+        audioDecoder.configure(audioFormat, null, null, 0);
+        audioDecoder.start();
+    }
+
+    private void feedVideoDecoder() {
+        if (videoExtractDone) {
+            return;
+        }
+        int index = videoDecoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer buffer = videoDecoder.getInputBuffer(index);
+        int size = videoExtractor.readSampleData(buffer, 0);
+        if (size < 0) {
+            videoDecoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            videoExtractDone = true;
+            return;
+        }
+        videoDecoder.queueInputBuffer(index, 0, size, videoExtractor.getSampleTime(), 0);
+        videoExtractor.advance();
+    }
+
+    private void drainVideoDecoder() {
+        if (videoDecodeDone) {
+            return;
+        }
+        int index = videoDecoder.dequeueOutputBuffer(info, TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        boolean render = info.size > 0;
+        videoDecoder.releaseOutputBuffer(index, render);
+        if (render) {
+            reportProgress(info.presentationTimeUs);
+        }
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            videoDecodeDone = true;
+            videoEncoder.signalEndOfInputStream();
+        }
+    }
+
+    private void drainVideoEncoder() {
+        while (!videoEncodeDone) {
+            int index = videoEncoder.dequeueOutputBuffer(info, 0);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                muxVideo = muxer.addTrack(videoEncoder.getOutputFormat());
+                maybeStartMuxer();
+                continue;
+            }
+            if (index < 0) {
+                return;
+            }
+            writeEncoded(true, videoEncoder.getOutputBuffer(index));
+            videoEncoder.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                videoEncodeDone = true;
+            }
+        }
+    }
+
+    private void copyAudio() {
+        if (audioEncodeDone || !muxing) {
+            return;
+        }
+        int size = audioExtractor.readSampleData(passthroughBuffer, 0);
+        if (size < 0) {
+            audioEncodeDone = true;
+            return;
+        }
+        info.set(0, size, audioExtractor.getSampleTime(), MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        muxer.writeSampleData(muxAudio, passthroughBuffer, info);
+        audioExtractor.advance();
+    }
+
+    private void feedAudioDecoder() {
+        if (audioExtractDone) {
+            return;
+        }
+        int index = audioDecoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer buffer = audioDecoder.getInputBuffer(index);
+        int size = audioExtractor.readSampleData(buffer, 0);
+        if (size < 0) {
+            audioDecoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            audioExtractDone = true;
+            return;
+        }
+        audioDecoder.queueInputBuffer(index, 0, size, audioExtractor.getSampleTime(), 0);
+        audioExtractor.advance();
+    }
+
+    private void drainAudioDecoder() {
+        if (audioDecodeDone) {
+            return;
+        }
+        MediaCodec.BufferInfo decoded = new MediaCodec.BufferInfo();
+        int index = audioDecoder.dequeueOutputBuffer(decoded, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            MediaFormat format = audioDecoder.getOutputFormat();
+            audioSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            audioChannels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            return;
+        }
+        if (index < 0) {
+            return;
+        }
+
+        ByteBuffer pcm = audioDecoder.getOutputBuffer(index);
+        int offset = decoded.offset;
+        int end = decoded.offset + decoded.size;
+        boolean endOfStream = (decoded.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        while (offset < end || endOfStream) {
+            int input = audioEncoder.dequeueInputBuffer(TIMEOUT_US);
+            if (input < 0) {
+                drainAudioEncoder();
+                continue;
+            }
+            ByteBuffer target = audioEncoder.getInputBuffer(input);
+            int chunk = Math.min(end - offset, target.remaining());
+            pcm.limit(offset + chunk);
+            pcm.position(offset);
+            target.put(pcm);
+            long frames = (offset - decoded.offset) / (2L * audioChannels);
+            long timeUs = decoded.presentationTimeUs + frames * 1000000L / audioSampleRate;
+            offset += chunk;
+            boolean last = endOfStream && offset >= end;
+            audioEncoder.queueInputBuffer(input, 0, chunk, timeUs, last ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+            if (last) {
+                break;
+            }
+        }
+        audioDecoder.releaseOutputBuffer(index, false);
+        if (endOfStream) {
+            audioDecodeDone = true;
+        }
+    }
+
+    private void drainAudioEncoder() {
+        while (!audioEncodeDone) {
+            int index = audioEncoder.dequeueOutputBuffer(info, 0);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                muxAudio = muxer.addTrack(audioEncoder.getOutputFormat());
+                maybeStartMuxer();
+                continue;
+            }
+            if (index < 0) {
+                return;
+            }
+            writeEncoded(false, audioEncoder.getOutputBuffer(index));
+            audioEncoder.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                audioEncodeDone = true;
+            }
+        }
+    }
+
+    private void writeEncoded(boolean video, ByteBuffer buffer) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || info.size == 0) {
+            return;
+        }
+        if (!muxing) {
+            pending.add(new PendingSample(video, buffer, info));
+            return;
+        }
+        muxer.writeSampleData(video ? muxVideo : muxAudio, buffer, info);
+    }
+
+    private void maybeStartMuxer() {
+        if (muxing || muxVideo < 0 || (audioTrack >= 0 && muxAudio < 0)) {
+            return;
+        }
+        muxer.start();
+        muxing = true;
+        for (PendingSample sample : pending) {
+            muxer.writeSampleData(sample.video ? muxVideo : muxAudio, ByteBuffer.wrap(sample.data), sample.info);
+        }
+        pending.clear();
+    }
+
+    private void reportProgress(long presentationTimeUs) {
+        if (durationUs <= 0) {
+            return;
+        }
+        int percent = (int) Math.min(100, presentationTimeUs * 100 / durationUs);
+        if (percent != lastPercent) {
+            lastPercent = percent;
+            progress.update(percent);
+        }
+    }
+
+    private void release() {
+        for (MediaCodec codec : new MediaCodec[] {videoDecoder, videoEncoder, audioDecoder, audioEncoder}) {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Failed to stop codec", e);
+                }
+                codec.release();
+            }
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+        }
+        if (muxer != null) {
+            try {
+                muxer.release();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Failed to release muxer", e);
+            }
+        }
+        if (videoExtractor != null) {
+            videoExtractor.release();
+        }
+        if (audioExtractor != null) {
+            audioExtractor.release();
+        }
+    }
+}
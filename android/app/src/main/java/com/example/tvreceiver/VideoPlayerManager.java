@@ -6,22 +6,31 @@ import android.util.Log;
 import android.view.View;
 import android.widget.FrameLayout;
 
+import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.PlaybackException;
 import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.ProgressiveMediaSource;
 import com.google.android.exoplayer2.ui.StyledPlayerView;
 
 import java.io.File;
 
 public class VideoPlayerManager implements Player.Listener {
     private static final String TAG = "VideoPlayerManager";
+    private static final int STREAM_MIN_BUFFER_MS = 15000;
+    private static final int STREAM_MAX_BUFFER_MS = 60000;
+    private static final int STREAM_BUFFER_FOR_PLAYBACK_MS = 1000;
+    private static final int STREAM_BUFFER_AFTER_REBUFFER_MS = 2500;
 
     private final Context context;
     private final FrameLayout container;
     private ExoPlayer player;
     private StyledPlayerView playerView;
     private PlayerEventListener listener;
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
 
     public interface PlayerEventListener {
         void onPlaybackCompleted();
@@ -38,6 +47,10 @@ public class VideoPlayerManager implements Player.Listener {
         this.listener = listener;
     }
 
+    public PlaybackMetrics getMetrics() {
+        return metrics;
+    }
+
     public void playVideo(String videoPath) {
         File videoFile = new File(videoPath);
         if (!videoFile.exists()) {
@@ -48,10 +61,95 @@ public class VideoPlayerManager implements Player.Listener {
             return;
         }
 
-        releasePlayer();
+        ensurePlayer();
+        metrics.onPlaybackRequested();
+
+        player.setMediaItem(MediaItem.fromUri(Uri.fromFile(videoFile)));
+        player.prepare();
+        player.setPlayWhenReady(true);
+
+        Log.i(TAG, "Started playing: " + videoPath);
+    }
+
+    public void playProgressive(ProgressiveUpload upload) {
+        ensurePlayer();
+        metrics.onPlaybackRequested();
+
+        MediaSource mediaSource = new ProgressiveMediaSource.Factory(() -> new GrowingFileDataSource(upload))
+            .createMediaSource(MediaItem.fromUri(Uri.fromFile(upload.getFile())));
+        player.setMediaSource(mediaSource);
+        player.prepare();
+        player.setPlayWhenReady(true);
+
+        Log.i(TAG, "Started progressive playback: " + upload.getFile());
+    }
+
+    public void playUrl(String url) {
+        ensurePlayer();
+        metrics.onPlaybackRequested();
+
+        player.setMediaItem(MediaItem.fromUri(Uri.parse(url)));
+        player.prepare();
+        player.setPlayWhenReady(true);
+
+        Log.i(TAG, "Started streaming: " + url);
+    }
+
+    public void enqueue(String videoPathOrUrl) {
+        if (!isActive()) {
+            if (videoPathOrUrl.startsWith("http://") || videoPathOrUrl.startsWith("https://")) {
+                playUrl(videoPathOrUrl);
+            } else {
+                playVideo(videoPathOrUrl);
+            }
+            return;
+        }
+
+        Uri uri = videoPathOrUrl.startsWith("/")
+            ? Uri.fromFile(new File(videoPathOrUrl))
+            : Uri.parse(videoPathOrUrl);
+        player.addMediaItem(MediaItem.fromUri(uri));
+        Log.i(TAG, "Enqueued: " + videoPathOrUrl + " (queue size " + player.getMediaItemCount() + ")");
+    }
+
+    public boolean isActive() {
+        return player != null
+            && player.getMediaItemCount() > 0
+            && player.getPlaybackState() != Player.STATE_IDLE
+            && player.getPlaybackState() != Player.STATE_ENDED;
+    }
 
-        player = new ExoPlayer.Builder(context).build();
+    private LoadControl buildLoadControl() {
+        return new DefaultLoadControl.Builder()
+            .setBufferDurationsMs(
+                STREAM_MIN_BUFFER_MS,
+                STREAM_MAX_BUFFER_MS,
+                STREAM_BUFFER_FOR_PLAYBACK_MS,
+                STREAM_BUFFER_AFTER_REBUFFER_MS)
+            .setPrioritizeTimeOverSizeThresholds(true)
+            .build();
+    }
+
+    public void warmUp() {
+        if (player == null) {
+            createPlayer();
+            Log.i(TAG, "Player warmed up ahead of playback");
+        }
+    }
+
+    private void ensurePlayer() {
+        if (player == null) {
+            createPlayer();
+        }
+        container.setVisibility(View.VISIBLE);
+    }
+
+    private void createPlayer() {
+        player = new ExoPlayer.Builder(context)
+            .setLoadControl(buildLoadControl())
+            .build();
         player.addListener(this);
+        player.addAnalyticsListener(metrics);
 
         playerView = new StyledPlayerView(context);
         playerView.setPlayer(player);
@@ -63,14 +161,7 @@ public class VideoPlayerManager implements Player.Listener {
             FrameLayout.LayoutParams.MATCH_PARENT,
             FrameLayout.LayoutParams.MATCH_PARENT
         ));
-        container.setVisibility(View.VISIBLE);
-
-        MediaItem mediaItem = MediaItem.fromUri(Uri.fromFile(videoFile));
-        player.setMediaItem(mediaItem);
-        player.prepare();
-        player.setPlayWhenReady(true);
-
-        Log.i(TAG, "Started playing: " + videoPath);
+        Log.i(TAG, "Player created");
     }
 
     public void pause() {
@@ -91,9 +182,18 @@ public class VideoPlayerManager implements Player.Listener {
         }
     }
 
+    public void stopAndHide() {
+        if (player != null) {
+            player.stop();
+            player.clearMediaItems();
+        }
+        container.setVisibility(View.GONE);
+    }
+
     public void releasePlayer() {
         if (player != null) {
             player.removeListener(this);
+            player.removeAnalyticsListener(metrics);
             player.release();
             player = null;
         }
@@ -117,6 +217,18 @@ public class VideoPlayerManager implements Player.Listener {
         return player != null ? player.getDuration() : 0;
     }
 
+    @Override
+    public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+        if (reason != Player.MEDIA_ITEM_TRANSITION_REASON_AUTO || player == null) {
+            return;
+        }
+        int played = player.getCurrentMediaItemIndex();
+        if (played > 0) {
+            player.removeMediaItems(0, played);
+        }
+        Log.i(TAG, "Advanced to next queued video, " + player.getMediaItemCount() + " remaining");
+    }
+
     @Override
     public void onPlaybackStateChanged(int playbackState) {
         switch (playbackState) {
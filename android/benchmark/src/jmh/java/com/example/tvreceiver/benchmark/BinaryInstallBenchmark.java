@@ -0,0 +1,54 @@
+package com.example.tvreceiver.benchmark;
+
+import com.example.tvreceiver.BinaryInstaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BinaryInstallBenchmark {
+    @Param({"4", "16"})
+    public int sizeMb;
+
+    @Param({"8192", "65536", "262144"})
+    public int bufferSize;
+
+    private byte[] binary;
+    private File dir;
+    private File dest;
+
+    @Setup
+    public void setUp() throws IOException {
+        binary = new byte[sizeMb << 20];
+        new Random(42).nextBytes(binary);
+        dir = Files.createTempDirectory("tvreceiver-bench").toFile();
+        dest = new File(dir, "libserver.so");
+    }
+
+    @TearDown
+    public void tearDown() {
+        dest.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public long install() throws IOException {
+        return BinaryInstaller.install(new ByteArrayInputStream(binary), dest, bufferSize);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.tvreceiver.benchmark;
+
+import com.example.tvreceiver.QrCodeMatrix;
+import com.google.zxing.WriterException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QrCodeBenchmark {
+    private static final String URL = "http://192.168.1.105:8080";
+
+    @Benchmark
+    public QrCodeMatrix encode() throws WriterException {
+        return QrCodeMatrix.encode(URL);
+    }
+}
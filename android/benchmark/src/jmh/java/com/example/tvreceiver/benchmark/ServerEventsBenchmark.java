@@ -0,0 +1,61 @@
+package com.example.tvreceiver.benchmark;
+
+import com.example.tvreceiver.ServerEvents;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServerEventsBenchmark {
+    private static final String PROGRESS =
+        "{\"id\":\"3f2a9c1d7e4b6a80\",\"name\":\"holiday.mp4\",\"path\":\"/data/library/3f2a9c1d7e4b6a80.mp4.tmp\","
+            + "\"size\":734003200,\"written\":367001600}";
+    private static final String COMPLETED =
+        "{\"id\":\"3f2a9c1d7e4b6a80\",\"name\":\"holiday.mp4\",\"path\":\"/data/library/3f2a9c1d7e4b6a80.mp4\","
+            + "\"size\":734003200,\"sha256\":\"9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08\","
+            + "\"fingerprint\":\"fp1:0123456789abcdef\"}";
+
+    @Param({"1", "4"})
+    public int listeners;
+
+    private ServerEvents events;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        events = new ServerEvents();
+        for (int i = 0; i < listeners; i++) {
+            events.addListener(new ServerEvents.Listener() {
+                @Override
+                public void onVideoReady(String videoPath) {
+                    blackhole.consume(videoPath);
+                }
+
+                @Override
+                public void onUploadProgress(String tempPath, long written, long available, long size) {
+                    blackhole.consume(written);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void uploadProgress() {
+        events.publish("upload_progress", PROGRESS);
+    }
+
+    @Benchmark
+    public void uploadCompleted() {
+        events.publish("upload_completed", COMPLETED);
+    }
+}
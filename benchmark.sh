@@ -0,0 +1,25 @@
+#!/bin/bash
+
+set -e
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+RESULTS_DIR="${SCRIPT_DIR}/benchmark-results"
+GO_BENCH="${GO_BENCH:-.}"
+
+mkdir -p "${RESULTS_DIR}"
+
+echo "Running Go benchmarks..."
+cd "${SCRIPT_DIR}/server"
+go test -run '^$' -bench "${GO_BENCH}" -benchmem -json > "${RESULTS_DIR}/go.json"
+
+echo "Running JMH benchmarks..."
+cd "${SCRIPT_DIR}/android"
+GRADLE="gradle"
+if [ -x ./gradlew ]; then
+    GRADLE="./gradlew"
+fi
+${GRADLE} :benchmark:jmh ${JMH_INCLUDES:+-PjmhIncludes="${JMH_INCLUDES}"}
+cp benchmark/build/results/jmh/results.json "${RESULTS_DIR}/jmh.json"
+
+echo "Benchmark results written to: ${RESULTS_DIR}"
+ls -la "${RESULTS_DIR}"
@@ -11,6 +11,12 @@ if not exist "%ANDROID_ASSETS_DIR%" mkdir "%ANDROID_ASSETS_DIR%"
 
 cd /d "%SERVER_DIR%"
 
+where brotli >nul 2>nul
+if not errorlevel 1 (
+    echo Pre-compressing static assets...
+    for %%F in (static\*.html) do brotli -q 11 -k -f "%%F"
+)
+
 echo Building for arm64-v8a...
 set CGO_ENABLED=0
 set GOOS=android
@@ -26,6 +32,37 @@ echo Building for x86_64 (emulator)...
 set GOARCH=amd64
 go build -ldflags="-s -w" -o "%ANDROID_ASSETS_DIR%\libserver_x64.so" .
 
+if "%ANDROID_NDK_HOME%"=="" (
+    echo ANDROID_NDK_HOME not set, skipping in-process server library
+    goto done
+)
+
+set JNI_LIBS_DIR=%SCRIPT_DIR%android\app\src\main\jniLibs
+set NDK_BIN=%ANDROID_NDK_HOME%\toolchains\llvm\prebuilt\windows-x86_64\bin
+set CGO_ENABLED=1
+
+echo Building in-process server library for arm64-v8a...
+if not exist "%JNI_LIBS_DIR%\arm64-v8a" mkdir "%JNI_LIBS_DIR%\arm64-v8a"
+set CC=%NDK_BIN%\aarch64-linux-android21-clang.cmd
+set GOARCH=arm64
+go build -tags jni -buildmode=c-shared -ldflags="-s -w" -o "%JNI_LIBS_DIR%\arm64-v8a\libtvserver.so" .
+
+echo Building in-process server library for armeabi-v7a...
+if not exist "%JNI_LIBS_DIR%\armeabi-v7a" mkdir "%JNI_LIBS_DIR%\armeabi-v7a"
+set CC=%NDK_BIN%\armv7a-linux-androideabi21-clang.cmd
+set GOARCH=arm
+set GOARM=7
+go build -tags jni -buildmode=c-shared -ldflags="-s -w" -o "%JNI_LIBS_DIR%\armeabi-v7a\libtvserver.so" .
+
+echo Building in-process server library for x86_64...
+if not exist "%JNI_LIBS_DIR%\x86_64" mkdir "%JNI_LIBS_DIR%\x86_64"
+set CC=%NDK_BIN%\x86_64-linux-android21-clang.cmd
+set GOARCH=amd64
+go build -tags jni -buildmode=c-shared -ldflags="-s -w" -o "%JNI_LIBS_DIR%\x86_64\libtvserver.so" .
+
+for %%A in (arm64-v8a armeabi-v7a x86_64) do del /q "%JNI_LIBS_DIR%\%%A\libtvserver.h" 2>nul
+
+:done
 echo Build completed successfully!
 echo Binaries are located at: %ANDROID_ASSETS_DIR%
 dir "%ANDROID_ASSETS_DIR%"
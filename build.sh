@@ -10,6 +10,17 @@ echo "Building Go server for Android..."
 
 mkdir -p "${ANDROID_ASSETS_DIR}"
 
+echo "Pre-compressing static assets..."
+for asset in "${SERVER_DIR}"/static/*; do
+    case "${asset}" in
+        *.gz|*.br) continue ;;
+    esac
+    gzip -9 -n -k -f "${asset}"
+    if command -v brotli >/dev/null 2>&1; then
+        brotli -q 11 -k -f "${asset}"
+    fi
+done
+
 echo "Building for arm64-v8a..."
 cd "${SERVER_DIR}"
 CGO_ENABLED=0 GOOS=android GOARCH=arm64 go build -ldflags="-s -w" -o "${ANDROID_ASSETS_DIR}/libserver.so" .
@@ -20,6 +31,25 @@ CGO_ENABLED=0 GOOS=android GOARCH=arm GOARM=7 go build -ldflags="-s -w" -o "${AN
 echo "Building for x86_64 (emulator)..."
 CGO_ENABLED=0 GOOS=android GOARCH=amd64 go build -ldflags="-s -w" -o "${ANDROID_ASSETS_DIR}/libserver_x64.so" .
 
+if [ -n "${ANDROID_NDK_HOME}" ]; then
+    JNI_LIBS_DIR="${SCRIPT_DIR}/android/app/src/main/jniLibs"
+    NDK_BIN="$(echo "${ANDROID_NDK_HOME}"/toolchains/llvm/prebuilt/*/bin)"
+
+    build_embedded() {
+        mkdir -p "${JNI_LIBS_DIR}/$1"
+        echo "Building in-process server library for $1..."
+        CGO_ENABLED=1 CC="${NDK_BIN}/$2" GOOS=android GOARCH=$3 GOARM=7 \
+            go build -tags jni -buildmode=c-shared -ldflags="-s -w" -o "${JNI_LIBS_DIR}/$1/libtvserver.so" .
+        rm -f "${JNI_LIBS_DIR}/$1/libtvserver.h"
+    }
+
+    build_embedded arm64-v8a aarch64-linux-android21-clang arm64
+    build_embedded armeabi-v7a armv7a-linux-androideabi21-clang arm
+    build_embedded x86_64 x86_64-linux-android21-clang amd64
+else
+    echo "ANDROID_NDK_HOME not set, skipping in-process server library"
+fi
+
 echo "Build completed successfully!"
 echo "Binaries are located at: ${ANDROID_ASSETS_DIR}"
 ls -la "${ANDROID_ASSETS_DIR}"
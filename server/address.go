@@ -0,0 +1,138 @@
+package main
+
+import (
+	"fmt"
+	"net"
+	"net/http"
+	"net/url"
+	"strings"
+	"sync"
+)
+
+var advertised struct {
+	mu sync.RWMutex
+	ip string
+}
+
+type addressEvent struct {
+	IP   string `json:"ip"`
+	Port int    `json:"port"`
+}
+
+var virtualInterfacePrefixes = []string{"docker", "br-", "veth", "virbr", "tun", "tap", "ppp", "wg", "dummy", "p2p"}
+
+func advertisedIP() string {
+	advertised.mu.RLock()
+	ip := advertised.ip
+	advertised.mu.RUnlock()
+	if ip == "" {
+		return getLocalIP()
+	}
+	return ip
+}
+
+func setAdvertisedIP(ip string) bool {
+	advertised.mu.Lock()
+	changed := advertised.ip != ip
+	advertised.ip = ip
+	advertised.mu.Unlock()
+	return changed
+}
+
+func interfaceRank(iface net.Interface) int {
+	name := strings.ToLower(iface.Name)
+	for _, prefix := range virtualInterfacePrefixes {
+		if strings.HasPrefix(name, prefix) {
+			return -1
+		}
+	}
+	switch {
+	case strings.HasPrefix(name, "eth"), strings.HasPrefix(name, "en"):
+		return 2
+	case strings.HasPrefix(name, "wl"):
+		return 1
+	default:
+		return 0
+	}
+}
+
+func getLocalIP() string {
+	ifaces, err := net.Interfaces()
+	if err != nil {
+		return ""
+	}
+
+	best, bestRank := "", -1
+	for _, iface := range ifaces {
+		if iface.Flags&net.FlagUp == 0 || iface.Flags&(net.FlagLoopback|net.FlagPointToPoint) != 0 {
+			continue
+		}
+		rank := interfaceRank(iface)
+		if rank <= bestRank {
+			continue
+		}
+		addrs, err := iface.Addrs()
+		if err != nil {
+			continue
+		}
+		for _, addr := range addrs {
+			if ipnet, ok := addr.(*net.IPNet); ok && ipnet.IP.To4() != nil && !ipnet.IP.IsLinkLocalUnicast() {
+				best, bestRank = ipnet.IP.String(), rank
+				break
+			}
+		}
+	}
+	return best
+}
+
+func isLoopbackRequest(r *http.Request) bool {
+	host, _, err := net.SplitHostPort(r.RemoteAddr)
+	if err != nil {
+		return false
+	}
+	ip := net.ParseIP(host)
+	return ip != nil && ip.IsLoopback()
+}
+
+func isSameOriginRequest(r *http.Request) bool {
+	origin := r.Header.Get("Origin")
+	if origin == "" {
+		return r.Header.Get("Sec-Fetch-Site") != "cross-site"
+	}
+	u, err := url.Parse(origin)
+	return err == nil && u.Host == r.Host
+}
+
+func updateAdvertisedIP(value string) error {
+	ip := net.ParseIP(value)
+	if ip == nil || ip.To4() == nil || ip.IsLoopback() {
+		return fmt.Errorf("invalid IPv4 address: %q", value)
+	}
+	if setAdvertisedIP(ip.String()) {
+		fmt.Printf("Advertised address changed: http://%s:%d\n", ip, serverPort)
+		emitEvent("address", addressEvent{IP: ip.String(), Port: serverPort})
+	}
+	return nil
+}
+
+func handleControlAddress(w http.ResponseWriter, r *http.Request) {
+	if !isLoopbackRequest(r) {
+		http.Error(w, "Forbidden", http.StatusForbidden)
+		return
+	}
+
+	switch r.Method {
+	case http.MethodGet:
+	case http.MethodPost:
+		if err := updateAdvertisedIP(r.URL.Query().Get("ip")); err != nil {
+			http.Error(w, err.Error(), http.StatusBadRequest)
+			return
+		}
+	default:
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	w.Header().Set("Content-Type", "application/json")
+	fmt.Fprintf(w, `{"ip": "%s", "port": %d}`, advertisedIP(), serverPort)
+}
@@ -0,0 +1,213 @@
+package main
+
+import (
+	"context"
+	"errors"
+	"io"
+	"net"
+	"net/http"
+	"strconv"
+	"sync"
+	"time"
+)
+
+const (
+	PlayPolicyLatest = "latest"
+	PlayPolicyQueue  = "queue"
+
+	uploadRetryAfter = 5 * time.Second
+)
+
+var errUploadBusy = errors.New("too many concurrent uploads")
+
+type UploadPolicy struct {
+	MaxConcurrent   int
+	MaxQueued       int
+	QueueWait       time.Duration
+	DiskBytesPerSec int64
+	WriteBlockSize  int
+	PlayPolicy      string
+}
+
+func defaultUploadPolicy() UploadPolicy {
+	return UploadPolicy{
+		MaxConcurrent:  4,
+		MaxQueued:      16,
+		QueueWait:      30 * time.Second,
+		WriteBlockSize: DefaultWriteBlockSize,
+		PlayPolicy:     PlayPolicyLatest,
+	}
+}
+
+var (
+	uploadGate    *admission
+	diskBandwidth *bandwidthLimiter
+	playPolicy    = PlayPolicyLatest
+)
+
+func applyUploadPolicy(p UploadPolicy) {
+	uploadGate = newAdmission(p.MaxConcurrent, p.MaxQueued, p.QueueWait)
+	diskBandwidth = newBandwidthLimiter(p.DiskBytesPerSec)
+	playPolicy = p.PlayPolicy
+	if p.WriteBlockSize > 0 {
+		writeBlockSize = p.WriteBlockSize
+	}
+}
+
+type admission struct {
+	slots    chan struct{}
+	mu       sync.Mutex
+	waiting  int
+	maxQueue int
+	maxWait  time.Duration
+}
+
+func newAdmission(maxConcurrent, maxQueue int, maxWait time.Duration) *admission {
+	if maxConcurrent < 1 {
+		maxConcurrent = 1
+	}
+	return &admission{
+		slots:    make(chan struct{}, maxConcurrent),
+		maxQueue: maxQueue,
+		maxWait:  maxWait,
+	}
+}
+
+func (a *admission) acquire(ctx context.Context) error {
+	select {
+	case a.slots <- struct{}{}:
+		return nil
+	default:
+	}
+
+	a.mu.Lock()
+	if a.waiting >= a.maxQueue {
+		a.mu.Unlock()
+		return errUploadBusy
+	}
+	a.waiting++
+	a.mu.Unlock()
+
+	defer func() {
+		a.mu.Lock()
+		a.waiting--
+		a.mu.Unlock()
+	}()
+
+	timer := time.NewTimer(a.maxWait)
+	defer timer.Stop()
+
+	select {
+	case a.slots <- struct{}{}:
+		return nil
+	case <-timer.C:
+		return errUploadBusy
+	case <-ctx.Done():
+		return ctx.Err()
+	}
+}
+
+func (a *admission) release() {
+	<-a.slots
+}
+
+func admitUpload(w http.ResponseWriter, r *http.Request) bool {
+	err := uploadGate.acquire(r.Context())
+	if err == nil {
+		return true
+	}
+	if err == errUploadBusy {
+		metrics.uploadsRejected.Add(1)
+		w.Header().Set("Retry-After", strconv.Itoa(int(uploadRetryAfter/time.Second)))
+		http.Error(w, "Too many concurrent uploads, retry later", http.StatusTooManyRequests)
+	}
+	return false
+}
+
+type bandwidthLimiter struct {
+	mu      sync.Mutex
+	rate    float64
+	clients map[string]*clientBucket
+}
+
+type clientBucket struct {
+	refs   int
+	tokens float64
+	last   time.Time
+}
+
+func newBandwidthLimiter(bytesPerSec int64) *bandwidthLimiter {
+	return &bandwidthLimiter{rate: float64(bytesPerSec), clients: map[string]*clientBucket{}}
+}
+
+func (l *bandwidthLimiter) join(client string) {
+	l.mu.Lock()
+	defer l.mu.Unlock()
+
+	b, ok := l.clients[client]
+	if !ok {
+		b = &clientBucket{last: time.Now()}
+		l.clients[client] = b
+	}
+	b.refs++
+}
+
+func (l *bandwidthLimiter) leave(client string) {
+	l.mu.Lock()
+	defer l.mu.Unlock()
+
+	if b, ok := l.clients[client]; ok {
+		b.refs--
+		if b.refs <= 0 {
+			delete(l.clients, client)
+		}
+	}
+}
+
+func (l *bandwidthLimiter) wait(client string, n int) {
+	if l.rate <= 0 {
+		return
+	}
+
+	l.mu.Lock()
+	b, ok := l.clients[client]
+	if !ok {
+		l.mu.Unlock()
+		return
+	}
+	share := l.rate / float64(len(l.clients))
+	now := time.Now()
+	b.tokens += now.Sub(b.last).Seconds() * share
+	if b.tokens > share {
+		b.tokens = share
+	}
+	b.last = now
+	b.tokens -= float64(n)
+	var delay time.Duration
+	if b.tokens < 0 {
+		delay = time.Duration(-b.tokens / share * float64(time.Second))
+	}
+	l.mu.Unlock()
+
+	if delay > 0 {
+		time.Sleep(delay)
+	}
+}
+
+type throttledWriter struct {
+	w      io.Writer
+	client string
+}
+
+func (t throttledWriter) Write(p []byte) (int, error) {
+	diskBandwidth.wait(t.client, len(p))
+	return t.w.Write(p)
+}
+
+func clientKey(r *http.Request) string {
+	host, _, err := net.SplitHostPort(r.RemoteAddr)
+	if err != nil {
+		return r.RemoteAddr
+	}
+	return host
+}
@@ -0,0 +1,113 @@
+package main
+
+import (
+	"io"
+	"sync"
+)
+
+const (
+	DefaultWriteBlockSize = 2 << 20
+	writeRingDepth        = 3
+)
+
+var (
+	writeBlockSize = DefaultWriteBlockSize
+	writeBlockPool sync.Pool
+)
+
+func getWriteBlock() []byte {
+	if bufp, ok := writeBlockPool.Get().(*[]byte); ok && cap(*bufp) == writeBlockSize {
+		return (*bufp)[:0]
+	}
+	return make([]byte, 0, writeBlockSize)
+}
+
+func putWriteBlock(buf []byte) {
+	if cap(buf) == writeBlockSize {
+		writeBlockPool.Put(&buf)
+	}
+}
+
+type blockWriter struct {
+	dst  io.Writer
+	cur  []byte
+	full chan []byte
+	free chan []byte
+	done chan struct{}
+
+	mu  sync.Mutex
+	err error
+}
+
+func newBlockWriter(dst io.Writer) *blockWriter {
+	b := &blockWriter{
+		dst:  dst,
+		full: make(chan []byte, writeRingDepth),
+		free: make(chan []byte, writeRingDepth),
+		done: make(chan struct{}),
+	}
+	for i := 0; i < writeRingDepth; i++ {
+		b.free <- getWriteBlock()
+	}
+	go b.run()
+	return b
+}
+
+func (b *blockWriter) run() {
+	defer close(b.done)
+	for block := range b.full {
+		if b.loadErr() == nil {
+			if _, err := b.dst.Write(block); err != nil {
+				b.mu.Lock()
+				b.err = err
+				b.mu.Unlock()
+			}
+		}
+		b.free <- block[:0]
+	}
+}
+
+func (b *blockWriter) loadErr() error {
+	b.mu.Lock()
+	defer b.mu.Unlock()
+	return b.err
+}
+
+func (b *blockWriter) Write(p []byte) (int, error) {
+	n := 0
+	for len(p) > 0 {
+		if err := b.loadErr(); err != nil {
+			return n, err
+		}
+		if b.cur == nil {
+			b.cur = <-b.free
+		}
+		k := copy(b.cur[len(b.cur):cap(b.cur)], p)
+		b.cur = b.cur[:len(b.cur)+k]
+		p = p[k:]
+		n += k
+		if len(b.cur) == cap(b.cur) {
+			b.full <- b.cur
+			b.cur = nil
+		}
+	}
+	return n, nil
+}
+
+func (b *blockWriter) Close() error {
+	if b.cur != nil {
+		if len(b.cur) > 0 {
+			b.full <- b.cur
+		} else {
+			b.free <- b.cur
+		}
+		b.cur = nil
+	}
+	close(b.full)
+	<-b.done
+
+	for i := 0; i < writeRingDepth; i++ {
+		putWriteBlock(<-b.free)
+	}
+	return b.loadErr()
+}
@@ -0,0 +1,639 @@
+package main
+
+import (
+	"crypto/sha1"
+	"encoding/hex"
+	"encoding/json"
+	"fmt"
+	"io"
+	"net/http"
+	"os"
+	"path/filepath"
+	"strconv"
+	"strings"
+	"sync"
+	"time"
+)
+
+const (
+	ChunkSize          = 4 << 20
+	MaxInitRequestSize = 64 << 10
+	SessionIdleTimeout = 30 * time.Second
+	SessionResumeTTL   = 24 * time.Hour
+	UploadsDirName     = "uploads"
+	sessionIDLen       = 16
+)
+
+type chunkSession struct {
+	mu          sync.Mutex
+	ID          string    `json:"id"`
+	Name        string    `json:"name"`
+	Size        int64     `json:"size"`
+	ChunkSize   int64     `json:"chunk_size"`
+	Bitmap      []byte    `json:"bitmap"`
+	Created     time.Time `json:"created"`
+	Fingerprint string    `json:"fingerprint"`
+	Container   string    `json:"container"`
+	Layout      string    `json:"layout"`
+
+	active     bool
+	lastActive time.Time
+	idle       *time.Timer
+
+	tracked      bool
+	trackedSince time.Time
+	trackedBytes int64
+
+	committing bool
+	writers    sync.WaitGroup
+}
+
+type initRequest struct {
+	Name        string `json:"name"`
+	Size        int64  `json:"size"`
+	Modified    int64  `json:"modified"`
+	Fingerprint string `json:"fingerprint"`
+	Head        []byte `json:"head"`
+}
+
+type initResponse struct {
+	ID        string `json:"id"`
+	ChunkSize int64  `json:"chunk_size"`
+	Missing   []int  `json:"missing"`
+}
+
+var (
+	sessionsMu sync.Mutex
+	sessions   = map[string]*chunkSession{}
+	createMu   sync.Mutex
+)
+
+func uploadsDir() string {
+	return filepath.Join(videoDir, UploadsDirName)
+}
+
+func (s *chunkSession) partPath() string {
+	return filepath.Join(uploadsDir(), s.ID+".part")
+}
+
+func (s *chunkSession) metaPath() string {
+	return filepath.Join(uploadsDir(), s.ID+".json")
+}
+
+func (s *chunkSession) numChunks() int {
+	return int((s.Size + s.ChunkSize - 1) / s.ChunkSize)
+}
+
+func (s *chunkSession) hasChunk(index int) bool {
+	return s.Bitmap[index/8]&(1<<uint(index%8)) != 0
+}
+
+func (s *chunkSession) setChunk(index int) {
+	s.Bitmap[index/8] |= 1 << uint(index%8)
+}
+
+func (s *chunkSession) chunkLength(index int) int64 {
+	return min(s.ChunkSize, s.Size-int64(index)*s.ChunkSize)
+}
+
+func (s *chunkSession) received() int64 {
+	var total int64
+	for i := 0; i < s.numChunks(); i++ {
+		if s.hasChunk(i) {
+			total += s.chunkLength(i)
+		}
+	}
+	return total
+}
+
+func (s *chunkSession) contiguous() int64 {
+	var total int64
+	for i := 0; i < s.numChunks() && s.hasChunk(i); i++ {
+		total += s.chunkLength(i)
+	}
+	return total
+}
+
+func (s *chunkSession) event() uploadEvent {
+	return uploadEvent{
+		ID:        s.ID,
+		Name:      s.Name,
+		Path:      s.partPath(),
+		Size:      s.Size,
+		Container: s.Container,
+		Layout:    s.Layout,
+		Enqueue:   playPolicy == PlayPolicyQueue,
+	}
+}
+
+func (s *chunkSession) track() {
+	if s.tracked {
+		return
+	}
+	s.tracked = true
+	s.trackedSince = time.Now()
+	s.trackedBytes = 0
+	metrics.uploadStarted()
+}
+
+func (s *chunkSession) untrack(ok bool) {
+	if !s.tracked {
+		return
+	}
+	s.tracked = false
+	metrics.uploadFinished(ok, s.trackedBytes, time.Since(s.trackedSince))
+}
+
+func (s *chunkSession) touch() {
+	s.lastActive = time.Now()
+	s.track()
+	if !s.active && s.hasChunk(0) {
+		s.active = true
+		emitEvent("upload_started", s.event())
+	}
+	if s.committing {
+		return
+	}
+	if s.idle == nil {
+		s.idle = time.AfterFunc(SessionIdleTimeout, s.expire)
+	} else {
+		s.idle.Reset(SessionIdleTimeout)
+	}
+}
+
+func (s *chunkSession) expire() {
+	s.mu.Lock()
+	defer s.mu.Unlock()
+
+	if s.idle == nil || s.committing {
+		return
+	}
+	if idle := time.Since(s.lastActive); idle < SessionIdleTimeout {
+		s.idle.Reset(SessionIdleTimeout - idle)
+		return
+	}
+	fmt.Printf("Upload %s stalled, keeping %d of %d bytes for resume\n", s.Name, s.received(), s.Size)
+	s.deactivate(false)
+	go sweepStaleSessions()
+}
+
+func (s *chunkSession) deactivate(completed bool) {
+	if s.idle != nil {
+		s.idle.Stop()
+		s.idle = nil
+	}
+	s.untrack(completed)
+	if !s.active {
+		return
+	}
+	s.active = false
+	if !completed {
+		emitEvent("upload_aborted", s.event())
+	}
+}
+
+func (s *chunkSession) abortCommit() {
+	s.mu.Lock()
+	s.committing = false
+	s.deactivate(false)
+	s.mu.Unlock()
+}
+
+func (s *chunkSession) finishCommit(ok bool) {
+	s.mu.Lock()
+	s.deactivate(ok)
+	s.mu.Unlock()
+}
+
+func (s *chunkSession) missing() []int {
+	missing := []int{}
+	for i := 0; i < s.numChunks(); i++ {
+		if !s.hasChunk(i) {
+			missing = append(missing, i)
+		}
+	}
+	return missing
+}
+
+func (s *chunkSession) persist() error {
+	data, err := json.Marshal(s)
+	if err != nil {
+		return err
+	}
+	tempPath := s.metaPath() + ".tmp"
+	if err := os.WriteFile(tempPath, data, 0644); err != nil {
+		return err
+	}
+	return os.Rename(tempPath, s.metaPath())
+}
+
+func sessionID(req initRequest) string {
+	sum := sha1.Sum([]byte(fmt.Sprintf("%s|%d|%d", req.Name, req.Size, req.Modified)))
+	return hex.EncodeToString(sum[:])[:sessionIDLen]
+}
+
+func validSessionID(id string) bool {
+	if len(id) != sessionIDLen {
+		return false
+	}
+	_, err := hex.DecodeString(id)
+	return err == nil
+}
+
+func lookupSession(id string) (*chunkSession, error) {
+	if !validSessionID(id) {
+		return nil, os.ErrNotExist
+	}
+
+	sessionsMu.Lock()
+	defer sessionsMu.Unlock()
+
+	if s, ok := sessions[id]; ok {
+		return s, nil
+	}
+
+	data, err := os.ReadFile(filepath.Join(uploadsDir(), id+".json"))
+	if err != nil {
+		return nil, err
+	}
+	s := &chunkSession{}
+	if err := json.Unmarshal(data, s); err != nil {
+		return nil, err
+	}
+	sessions[id] = s
+	return s, nil
+}
+
+func createSession(req initRequest, container string) (*chunkSession, error) {
+	createMu.Lock()
+	defer createMu.Unlock()
+
+	id := sessionID(req)
+	if s, err := lookupSession(id); err == nil {
+		return s, nil
+	}
+
+	if err := os.MkdirAll(uploadsDir(), 0755); err != nil {
+		return nil, err
+	}
+
+	s := &chunkSession{
+		ID:          id,
+		Name:        req.Name,
+		Size:        req.Size,
+		ChunkSize:   ChunkSize,
+		Created:     time.Now(),
+		Fingerprint: req.Fingerprint,
+		Container:   container,
+	}
+	s.Bitmap = make([]byte, (s.numChunks()+7)/8)
+
+	f, err := os.Create(s.partPath())
+	if err != nil {
+		return nil, err
+	}
+	if err = preallocate(f, s.Size, false); err != nil {
+		err = f.Truncate(s.Size)
+	}
+	f.Close()
+	if err != nil {
+		return nil, err
+	}
+
+	if err := s.persist(); err != nil {
+		return nil, err
+	}
+
+	sessionsMu.Lock()
+	sessions[id] = s
+	sessionsMu.Unlock()
+	return s, nil
+}
+
+func syncFile(path string) error {
+	f, err := os.OpenFile(path, os.O_WRONLY, 0)
+	if err != nil {
+		return err
+	}
+	defer f.Close()
+	return f.Sync()
+}
+
+func removeSession(s *chunkSession) {
+	os.Remove(s.metaPath())
+	sessionsMu.Lock()
+	delete(sessions, s.ID)
+	sessionsMu.Unlock()
+}
+
+func failChunk(s *chunkSession) {
+	s.mu.Lock()
+	s.untrack(false)
+	s.mu.Unlock()
+}
+
+func discardSession(s *chunkSession) {
+	removeSession(s)
+	os.Remove(s.partPath())
+}
+
+func sweepStaleSessions() {
+	entries, err := os.ReadDir(uploadsDir())
+	if err != nil {
+		return
+	}
+	for _, de := range entries {
+		name := de.Name()
+		id, ok := strings.CutSuffix(name, ".part")
+		if !ok {
+			id, ok = strings.CutSuffix(name, ".json")
+		}
+		if !ok || !validSessionID(id) {
+			continue
+		}
+		info, err := de.Info()
+		if err != nil || time.Since(info.ModTime()) < SessionResumeTTL {
+			continue
+		}
+
+		sessionsMu.Lock()
+		s, live := sessions[id]
+		sessionsMu.Unlock()
+		if live {
+			s.mu.Lock()
+			recent := s.committing || time.Since(s.lastActive) < SessionResumeTTL
+			if !recent {
+				s.deactivate(false)
+			}
+			s.mu.Unlock()
+			if recent {
+				continue
+			}
+		} else {
+			s = &chunkSession{ID: id}
+		}
+		fmt.Printf("Removing stale upload %s\n", id)
+		discardSession(s)
+	}
+}
+
+func pendingUploadBytes() int64 {
+	entries, err := os.ReadDir(uploadsDir())
+	if err != nil {
+		return 0
+	}
+	var total int64
+	for _, de := range entries {
+		if !strings.HasSuffix(de.Name(), ".part") {
+			continue
+		}
+		if info, err := de.Info(); err == nil {
+			total += info.Size()
+		}
+	}
+	return total
+}
+
+func handleUploadInit(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPost {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	var req initRequest
+	if err := json.NewDecoder(io.LimitReader(r.Body, MaxInitRequestSize)).Decode(&req); err != nil {
+		http.Error(w, "Invalid request: "+err.Error(), http.StatusBadRequest)
+		return
+	}
+	if req.Size < 0 || req.Size > MaxUploadSize {
+		http.Error(w, "Invalid file size", http.StatusRequestEntityTooLarge)
+		return
+	}
+	container := sniffContainer(req.Head)
+	if container == "" {
+		rejectUnsupported(w, req.Name)
+		return
+	}
+
+	s, err := createSession(req, container)
+	if err != nil {
+		http.Error(w, "Failed to create upload: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+
+	s.mu.Lock()
+	resp := initResponse{ID: s.ID, ChunkSize: s.ChunkSize, Missing: s.missing()}
+	s.touch()
+	s.mu.Unlock()
+
+	w.Header().Set("Content-Type", "application/json")
+	json.NewEncoder(w).Encode(resp)
+}
+
+func handleUploadChunk(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPut {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	s, err := lookupSession(r.URL.Query().Get("id"))
+	if err != nil {
+		http.Error(w, "Unknown upload", http.StatusNotFound)
+		return
+	}
+
+	offset, err := strconv.ParseInt(r.URL.Query().Get("offset"), 10, 64)
+	if err != nil || offset < 0 || offset >= s.Size || offset%s.ChunkSize != 0 {
+		http.Error(w, "Invalid chunk offset", http.StatusBadRequest)
+		return
+	}
+	index := int(offset / s.ChunkSize)
+	expected := s.ChunkSize
+	if offset+expected > s.Size {
+		expected = s.Size - offset
+	}
+
+	if !admitUpload(w, r) {
+		return
+	}
+	defer uploadGate.release()
+
+	client := clientKey(r)
+	diskBandwidth.join(client)
+	defer diskBandwidth.leave(client)
+
+	s.mu.Lock()
+	if s.committing {
+		s.mu.Unlock()
+		http.Error(w, "Upload is being committed", http.StatusConflict)
+		return
+	}
+	s.writers.Add(1)
+	s.mu.Unlock()
+	defer s.writers.Done()
+
+	var body io.Reader = http.MaxBytesReader(w, r.Body, expected)
+	if index == 0 {
+		src, container, layout := sniffUpload(body)
+		s.mu.Lock()
+		consistent := container != "" && (s.Container == "" || container == s.Container)
+		if consistent {
+			s.Container, s.Layout = container, layout
+		} else {
+			s.deactivate(false)
+		}
+		s.mu.Unlock()
+		if !consistent {
+			fmt.Printf("Chunk 0 of %s does not match the sniffed %s header\n", s.Name, s.Container)
+			discardSession(s)
+			rejectUnsupported(w, s.Name)
+			return
+		}
+		body = src
+	}
+
+	f, err := os.OpenFile(s.partPath(), os.O_WRONLY, 0644)
+	if err != nil {
+		http.Error(w, "Failed to open upload: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+
+	disk := newBlockWriter(throttledWriter{timedWriter{io.NewOffsetWriter(f, offset)}, client})
+	written, err := streamToFile(disk, body)
+	if cerr := disk.Close(); err == nil {
+		err = cerr
+	}
+	f.Close()
+	if err != nil {
+		failChunk(s)
+		http.Error(w, "Failed to write chunk: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	if written != expected {
+		failChunk(s)
+		http.Error(w, fmt.Sprintf("Incomplete chunk: %d of %d bytes", written, expected), http.StatusBadRequest)
+		return
+	}
+
+	s.mu.Lock()
+	s.setChunk(index)
+	err = s.persist()
+	remaining := len(s.missing())
+	s.touch()
+	s.trackedBytes += written
+	progress := s.event()
+	progress.Written = s.received()
+	progress.Available = s.contiguous()
+	s.mu.Unlock()
+	emitEvent("upload_progress", progress)
+	if err != nil {
+		failChunk(s)
+		http.Error(w, "Failed to record chunk: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+
+	w.Header().Set("Content-Type", "application/json")
+	fmt.Fprintf(w, `{"index": %d, "remaining": %d}`, index, remaining)
+}
+
+func handleUploadCommit(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPost {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	s, err := lookupSession(r.URL.Query().Get("id"))
+	if err != nil {
+		http.Error(w, "Unknown upload", http.StatusNotFound)
+		return
+	}
+
+	s.mu.Lock()
+	if s.committing {
+		s.mu.Unlock()
+		http.Error(w, "Upload is already being committed", http.StatusConflict)
+		return
+	}
+	if missing := s.missing(); len(missing) > 0 {
+		s.mu.Unlock()
+		http.Error(w, fmt.Sprintf("Upload incomplete: %d chunks missing", len(missing)), http.StatusConflict)
+		return
+	}
+	s.committing = true
+	if s.idle != nil {
+		s.idle.Stop()
+		s.idle = nil
+	}
+	s.mu.Unlock()
+	s.writers.Wait()
+
+	if err := syncFile(s.partPath()); err != nil {
+		s.abortCommit()
+		http.Error(w, "Failed to flush upload: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+
+	fingerprint, err := fingerprintFile(s.partPath())
+	if err != nil {
+		s.abortCommit()
+		http.Error(w, "Failed to verify upload: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	if s.Fingerprint != "" && s.Fingerprint != fingerprint {
+		fmt.Fprintf(os.Stderr, "Fingerprint mismatch for %s: client %s, server %s\n",
+			s.Name, s.Fingerprint, fingerprint)
+	}
+
+	container, layout := sniffFile(s.partPath())
+	if container == "" {
+		s.finishCommit(false)
+		discardSession(s)
+		rejectUnsupported(w, s.Name)
+		return
+	}
+
+	entry := library.NewEntry(s.Name)
+	entry.File = entry.ID + uploadExtension(s.Name, container)
+	entry.Container = container
+	entry.Layout = layout
+	entry.Size = s.Size
+	entry.Fingerprint = fingerprint
+	if _, err := faststartEntry(entry, s.partPath()); err != nil {
+		s.finishCommit(false)
+		discardSession(s)
+		http.Error(w, "Failed to finalize file: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	sum, err := sha256File(s.partPath())
+	if err != nil {
+		s.abortCommit()
+		http.Error(w, "Failed to verify upload: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	entry.SHA256 = sum
+	if err := os.Rename(s.partPath(), library.Path(entry)); err != nil {
+		s.abortCommit()
+		http.Error(w, "Failed to finalize file: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	s.finishCommit(true)
+	removeSession(s)
+
+	if err := library.Add(entry); err != nil {
+		fmt.Fprintf(os.Stderr, "Failed to update library index: %v\n", err)
+	}
+	emitEvent("upload_completed", uploadEvent{
+		ID:          entry.ID,
+		Name:        s.Name,
+		Path:        library.Path(entry),
+		TempPath:    s.partPath(),
+		Size:        entry.Size,
+		SHA256:      entry.SHA256,
+		Fingerprint: fingerprint,
+		Enqueue:     playPolicy == PlayPolicyQueue,
+	})
+
+	fmt.Printf("Received video: %s (%d bytes, chunked)\n", s.Name, s.Size)
+	w.WriteHeader(http.StatusOK)
+	fmt.Fprintf(w, "Upload successful: %d bytes received", s.Size)
+}
@@ -0,0 +1,171 @@
+package main
+
+import (
+	"encoding/json"
+	"errors"
+	"fmt"
+	"net/http"
+	"os"
+	"sync"
+	"time"
+)
+
+const (
+	progressEventInterval = 250 * time.Millisecond
+	eventKeepAlive        = 15 * time.Second
+	eventBufferSize       = 256
+)
+
+var errNoPlayer = errors.New("no player connected")
+
+var eventSink func(kind string, payload []byte)
+
+type uploadEvent struct {
+	ID          string `json:"id"`
+	Name        string `json:"name"`
+	Path        string `json:"path,omitempty"`
+	TempPath    string `json:"temp_path,omitempty"`
+	Size        int64  `json:"size,omitempty"`
+	Written     int64  `json:"written,omitempty"`
+	Available   int64  `json:"available,omitempty"`
+	SHA256      string `json:"sha256,omitempty"`
+	Fingerprint string `json:"fingerprint,omitempty"`
+	Container   string `json:"container,omitempty"`
+	Layout      string `json:"layout,omitempty"`
+	Enqueue     bool   `json:"enqueue,omitempty"`
+}
+
+type playEvent struct {
+	Path    string `json:"path,omitempty"`
+	URL     string `json:"url,omitempty"`
+	Enqueue bool   `json:"enqueue,omitempty"`
+}
+
+type serverEvent struct {
+	kind    string
+	payload []byte
+}
+
+type eventHub struct {
+	mu          sync.Mutex
+	subscribers map[chan serverEvent]struct{}
+}
+
+var events = &eventHub{subscribers: map[chan serverEvent]struct{}{}}
+
+func (h *eventHub) subscribe() chan serverEvent {
+	h.mu.Lock()
+	defer h.mu.Unlock()
+
+	ch := make(chan serverEvent, eventBufferSize)
+	h.subscribers[ch] = struct{}{}
+	return ch
+}
+
+func (h *eventHub) unsubscribe(ch chan serverEvent) {
+	h.mu.Lock()
+	defer h.mu.Unlock()
+
+	delete(h.subscribers, ch)
+}
+
+func (h *eventHub) count() int {
+	h.mu.Lock()
+	defer h.mu.Unlock()
+
+	return len(h.subscribers)
+}
+
+func (h *eventHub) publish(ev serverEvent) {
+	h.mu.Lock()
+	defer h.mu.Unlock()
+
+	for ch := range h.subscribers {
+		select {
+		case ch <- ev:
+		default:
+			fmt.Fprintf(os.Stderr, "Dropped %s event for slow subscriber\n", ev.kind)
+		}
+	}
+}
+
+func hasEventListeners() bool {
+	return eventSink != nil || events.count() > 0
+}
+
+func emitEvent(kind string, v interface{}) {
+	if !hasEventListeners() {
+		return
+	}
+	payload, err := json.Marshal(v)
+	if err != nil {
+		fmt.Fprintf(os.Stderr, "Failed to encode %s event: %v\n", kind, err)
+		return
+	}
+	if eventSink != nil {
+		eventSink(kind, payload)
+	}
+	events.publish(serverEvent{kind, payload})
+}
+
+func requestPlay(ev playEvent) error {
+	if !hasEventListeners() {
+		return errNoPlayer
+	}
+	emitEvent("play", ev)
+	return nil
+}
+
+type progressWriter struct {
+	event   uploadEvent
+	written int64
+	last    time.Time
+}
+
+func (p *progressWriter) Write(b []byte) (int, error) {
+	p.written += int64(len(b))
+	if now := time.Now(); now.Sub(p.last) >= progressEventInterval {
+		p.last = now
+		ev := p.event
+		ev.Written = p.written
+		emitEvent("upload_progress", ev)
+	}
+	return len(b), nil
+}
+
+func handleEvents(w http.ResponseWriter, r *http.Request) {
+	if !isLoopbackRequest(r) {
+		http.Error(w, "Forbidden", http.StatusForbidden)
+		return
+	}
+
+	flusher, ok := w.(http.Flusher)
+	if !ok {
+		http.Error(w, "Streaming not supported", http.StatusInternalServerError)
+		return
+	}
+
+	ch := events.subscribe()
+	defer events.unsubscribe(ch)
+
+	w.Header().Set("Content-Type", "text/event-stream")
+	w.Header().Set("Cache-Control", "no-cache")
+	w.Header().Set("X-Accel-Buffering", "no")
+	fmt.Fprint(w, ": connected\n\n")
+	flusher.Flush()
+
+	keepAlive := time.NewTicker(eventKeepAlive)
+	defer keepAlive.Stop()
+
+	for {
+		select {
+		case <-r.Context().Done():
+			return
+		case <-keepAlive.C:
+			fmt.Fprint(w, ": ping\n\n")
+		case ev := <-ch:
+			fmt.Fprintf(w, "event: %s\ndata: %s\n\n", ev.kind, ev.payload)
+		}
+		flusher.Flush()
+	}
+}
@@ -0,0 +1,298 @@
+package main
+
+import (
+	"bytes"
+	"encoding/binary"
+	"errors"
+	"fmt"
+	"io"
+	"math"
+	"os"
+	"time"
+)
+
+const MaxMoovSize = 64 << 20
+
+var (
+	errCompressedMoov = errors.New("compressed moov is not supported")
+	errOffsetOverflow = errors.New("chunk offset exceeds 32 bits")
+	errFileDamaged    = errors.New("file left damaged by moov relocation")
+)
+
+type mp4Box struct {
+	typ    string
+	offset int64
+	size   int64
+	header int64
+}
+
+func relocateMoov(path string) (bool, error) {
+	f, err := os.OpenFile(path, os.O_RDWR, 0)
+	if err != nil {
+		return false, err
+	}
+	defer f.Close()
+
+	stat, err := f.Stat()
+	if err != nil {
+		return false, err
+	}
+	size := stat.Size()
+
+	var boxes []mp4Box
+	err = readBoxes(f, 0, size, func(typ string, offset, boxSize, header int64) error {
+		boxes = append(boxes, mp4Box{typ, offset, boxSize, header})
+		return nil
+	})
+	if err != nil {
+		return false, err
+	}
+
+	moov, mdat := -1, -1
+	for i, b := range boxes {
+		switch {
+		case b.typ == "moov" && moov < 0:
+			moov = i
+		case b.typ == "mdat" && mdat < 0:
+			mdat = i
+		}
+	}
+	if moov < 0 || mdat < 0 || moov < mdat {
+		return false, nil
+	}
+	if boxes[moov].size > MaxMoovSize {
+		return false, fmt.Errorf("moov too large to relocate: %d bytes", boxes[moov].size)
+	}
+
+	start := time.Now()
+	inserted, err := insertMoovInPlace(f, boxes, moov, size)
+	if err != nil {
+		return false, err
+	}
+	if inserted {
+		fmt.Printf("Moved moov to front of %s in place (%d bytes, %v)\n", path, boxes[moov].size, time.Since(start))
+		return true, nil
+	}
+
+	if err := rewriteFaststart(f, path, boxes, moov, mdat, size); err != nil {
+		return false, err
+	}
+	fmt.Printf("Rewrote %s with moov first (%d bytes, %v)\n", path, size, time.Since(start))
+	return true, nil
+}
+
+func insertMoovInPlace(f *os.File, boxes []mp4Box, moov int, size int64) (bool, error) {
+	m := boxes[moov]
+	var lead []byte
+	if boxes[0].typ == "ftyp" {
+		lead = make([]byte, boxes[0].size)
+		if _, err := f.ReadAt(lead, 0); err != nil {
+			return false, err
+		}
+	}
+
+	block := fsBlockSize(f)
+	used := int64(len(lead)) + m.size
+	shift := (used + 8 + block - 1) / block * block
+
+	data, err := readMoov(f, m, func(offset int64) int64 { return offset + shift })
+	if err != nil {
+		return false, err
+	}
+	if err := insertRange(f, 0, shift); err != nil {
+		fmt.Printf("In-place moov insertion unavailable: %v\n", err)
+		return false, nil
+	}
+
+	head := make([]byte, shift)
+	copy(head, lead)
+	copy(head[len(lead):], data)
+	putFreeBox(head[used:])
+	err = writeInsertedMoov(f, head, len(lead) > 0, m, shift)
+	if err == nil {
+		if m.offset+m.size == size {
+			err = f.Truncate(shift + m.offset)
+		}
+		if err == nil {
+			err = f.Sync()
+		}
+		if err != nil {
+			return true, fmt.Errorf("%w: %v", errFileDamaged, err)
+		}
+		return true, nil
+	}
+
+	if uerr := undoInsertedMoov(f, len(lead) > 0, m, shift); uerr != nil {
+		return true, fmt.Errorf("%w: %v (undo failed: %v)", errFileDamaged, err, uerr)
+	}
+	return false, err
+}
+
+func writeInsertedMoov(f *os.File, head []byte, hasLead bool, m mp4Box, shift int64) error {
+	if _, err := f.WriteAt(head, 0); err != nil {
+		return err
+	}
+	if hasLead {
+		if _, err := f.WriteAt([]byte("free"), shift+4); err != nil {
+			return err
+		}
+	}
+	if _, err := f.WriteAt([]byte("free"), shift+m.offset+4); err != nil {
+		return err
+	}
+	return nil
+}
+
+func undoInsertedMoov(f *os.File, hasLead bool, m mp4Box, shift int64) error {
+	if hasLead {
+		if _, err := f.WriteAt([]byte("ftyp"), shift+4); err != nil {
+			return err
+		}
+	}
+	if _, err := f.WriteAt([]byte("moov"), shift+m.offset+4); err != nil {
+		return err
+	}
+	if err := collapseRange(f, 0, shift); err != nil {
+		return err
+	}
+	return f.Sync()
+}
+
+func rewriteFaststart(src *os.File, path string, boxes []mp4Box, moov, mdat int, size int64) error {
+	m := boxes[moov]
+	insertAt := boxes[mdat].offset
+	data, err := readMoov(src, m, func(offset int64) int64 {
+		if offset >= insertAt && offset < m.offset {
+			return offset + m.size
+		}
+		return offset
+	})
+	if err != nil {
+		return err
+	}
+
+	tempPath := path + ".faststart"
+	dst, err := os.Create(tempPath)
+	if err != nil {
+		return err
+	}
+	if err := preallocate(dst, size, true); err != nil {
+		fmt.Printf("Preallocation unavailable for %s: %v\n", tempPath, err)
+	}
+	ok := false
+	defer func() {
+		if !ok {
+			dst.Close()
+			os.Remove(tempPath)
+		}
+	}()
+
+	for i, b := range boxes {
+		if i == mdat {
+			if _, err := dst.Write(data); err != nil {
+				return err
+			}
+		}
+		if i == moov {
+			continue
+		}
+		if _, err := streamToFile(dst, io.NewSectionReader(src, b.offset, b.size)); err != nil {
+			return err
+		}
+	}
+	if err := dst.Sync(); err != nil {
+		return err
+	}
+	if err := dst.Close(); err != nil {
+		return err
+	}
+	ok = true
+	return os.Rename(tempPath, path)
+}
+
+func readMoov(f *os.File, m mp4Box, shift func(int64) int64) ([]byte, error) {
+	data := make([]byte, m.size)
+	if _, err := f.ReadAt(data, m.offset); err != nil {
+		return nil, err
+	}
+	if binary.BigEndian.Uint32(data[:4]) == 0 {
+		binary.BigEndian.PutUint32(data[:4], uint32(m.size))
+	}
+	if err := patchChunkOffsets(data, m.header, m.size, shift); err != nil {
+		return nil, err
+	}
+	return data, nil
+}
+
+func patchChunkOffsets(moov []byte, start, end int64, shift func(int64) int64) error {
+	return readBoxes(bytes.NewReader(moov), start, end, func(typ string, offset, size, header int64) error {
+		switch typ {
+		case "trak", "mdia", "minf", "stbl":
+			return patchChunkOffsets(moov, offset+header, offset+size, shift)
+		case "stco":
+			return patchOffsetTable(moov[offset+header:offset+size], 4, shift)
+		case "co64":
+			return patchOffsetTable(moov[offset+header:offset+size], 8, shift)
+		case "cmov":
+			return errCompressedMoov
+		}
+		return nil
+	})
+}
+
+func patchOffsetTable(body []byte, width int, shift func(int64) int64) error {
+	if len(body) < 8 {
+		return errNotMP4
+	}
+	count := int64(binary.BigEndian.Uint32(body[4:8]))
+	entries := body[8:]
+	if count*int64(width) > int64(len(entries)) {
+		return errNotMP4
+	}
+	for i := 0; i < int(count); i++ {
+		e := entries[i*width:]
+		if width == 4 {
+			v := shift(int64(binary.BigEndian.Uint32(e)))
+			if v > math.MaxUint32 {
+				return errOffsetOverflow
+			}
+			binary.BigEndian.PutUint32(e, uint32(v))
+		} else {
+			binary.BigEndian.PutUint64(e, uint64(shift(int64(binary.BigEndian.Uint64(e)))))
+		}
+	}
+	return nil
+}
+
+func putFreeBox(b []byte) {
+	binary.BigEndian.PutUint32(b, uint32(len(b)))
+	copy(b[4:8], "free")
+}
+
+func faststartEntry(e *MediaEntry, path string) (bool, error) {
+	if e.Layout == "" && isMP4Family(e.Container) {
+		_, e.Layout = sniffFile(path)
+	}
+	if e.Layout != LayoutMoovLast {
+		return false, nil
+	}
+	moved, err := relocateMoov(path)
+	if errors.Is(err, errFileDamaged) {
+		return false, err
+	}
+	if err != nil {
+		fmt.Printf("Faststart relocation failed for %s: %v\n", e.Name, err)
+		return false, nil
+	}
+	if !moved {
+		return false, nil
+	}
+	e.Layout = LayoutMoovFirst
+	if info, err := os.Stat(path); err == nil && info.Size() != e.Size {
+		if e.SourceSize == 0 {
+			e.SourceSize = e.Size
+		}
+		e.Size = info.Size()
+	}
+	return true, nil
+}
@@ -0,0 +1,355 @@
+package main
+
+import (
+	"bytes"
+	"encoding/binary"
+	"errors"
+	"fmt"
+	"math"
+	"os"
+	"path/filepath"
+	"testing"
+)
+
+const testChunkSize = 4096
+
+type faststartFile struct {
+	ftyp      bool
+	co64      bool
+	moovSize0 bool
+	mdatSize0 bool
+	chunks    int
+	offset    func(i, base int) uint64
+}
+
+func sampleTag(i int) []byte {
+	return []byte(fmt.Sprintf("chunk%03d", i))
+}
+
+func (c faststartFile) build() []byte {
+	payload := make([]byte, c.chunks*testChunkSize)
+	for i := 0; i < c.chunks; i++ {
+		copy(payload[i*testChunkSize:], sampleTag(i))
+	}
+
+	var file []byte
+	if c.ftyp {
+		file = append(file, benchMP4Header[:24]...)
+	}
+	mdat := benchBox("mdat", payload)
+	if c.mdatSize0 {
+		binary.BigEndian.PutUint32(mdat, 0)
+	}
+	base := len(file) + 8
+	file = append(file, mdat...)
+
+	typ, width := "stco", 4
+	if c.co64 {
+		typ, width = "co64", 8
+	}
+	table := make([]byte, 8+width*c.chunks)
+	binary.BigEndian.PutUint32(table[4:], uint32(c.chunks))
+	for i := 0; i < c.chunks; i++ {
+		off := uint64(base + i*testChunkSize)
+		if c.offset != nil {
+			off = c.offset(i, base)
+		}
+		if c.co64 {
+			binary.BigEndian.PutUint64(table[8+8*i:], off)
+		} else {
+			binary.BigEndian.PutUint32(table[8+4*i:], uint32(off))
+		}
+	}
+	moov := benchBox("moov", benchBox("trak", benchBox("mdia", benchBox("minf", benchBox("stbl", benchBox(typ, table))))))
+	if c.moovSize0 {
+		binary.BigEndian.PutUint32(moov, 0)
+	}
+	return append(file, moov...)
+}
+
+func topLevelBoxes(t *testing.T, data []byte) []mp4Box {
+	t.Helper()
+	var boxes []mp4Box
+	err := readBoxes(bytes.NewReader(data), 0, int64(len(data)), func(typ string, offset, size, header int64) error {
+		boxes = append(boxes, mp4Box{typ, offset, size, header})
+		return nil
+	})
+	if err != nil {
+		t.Fatalf("reading boxes: %v", err)
+	}
+	return boxes
+}
+
+func chunkOffsets(data []byte, start, end int64) ([]int64, error) {
+	var offsets []int64
+	err := readBoxes(bytes.NewReader(data), start, end, func(typ string, offset, size, header int64) error {
+		body := data[offset+header : offset+size]
+		switch typ {
+		case "moov", "trak", "mdia", "minf", "stbl":
+			inner, err := chunkOffsets(data, offset+header, offset+size)
+			offsets = append(offsets, inner...)
+			return err
+		case "stco":
+			for i := 0; i < int(binary.BigEndian.Uint32(body[4:8])); i++ {
+				offsets = append(offsets, int64(binary.BigEndian.Uint32(body[8+4*i:])))
+			}
+		case "co64":
+			for i := 0; i < int(binary.BigEndian.Uint32(body[4:8])); i++ {
+				offsets = append(offsets, int64(binary.BigEndian.Uint64(body[8+8*i:])))
+			}
+		}
+		return nil
+	})
+	return offsets, err
+}
+
+func checkMoovFirst(t *testing.T, data []byte, chunks int) {
+	t.Helper()
+	moov, mdat := -1, -1
+	boxes := topLevelBoxes(t, data)
+	for i, b := range boxes {
+		switch {
+		case b.typ == "moov" && moov < 0:
+			moov = i
+		case b.typ == "mdat" && mdat < 0:
+			mdat = i
+		}
+	}
+	if moov < 0 || mdat < 0 || moov > mdat {
+		t.Fatalf("moov not ahead of mdat: boxes %v", boxes)
+	}
+	m := boxes[moov]
+	if got := int64(binary.BigEndian.Uint32(data[m.offset:])); got != m.size {
+		t.Fatalf("relocated moov size field = %d, want %d", got, m.size)
+	}
+
+	offsets, err := chunkOffsets(data, m.offset, m.offset+m.size)
+	if err != nil {
+		t.Fatalf("reading chunk offsets: %v", err)
+	}
+	if len(offsets) != chunks {
+		t.Fatalf("got %d chunk offsets, want %d", len(offsets), chunks)
+	}
+	for i, off := range offsets {
+		want := sampleTag(i)
+		if off < 0 || off+int64(len(want)) > int64(len(data)) {
+			t.Fatalf("chunk %d offset %d outside file of %d bytes", i, off, len(data))
+		}
+		if got := data[off : off+int64(len(want))]; !bytes.Equal(got, want) {
+			t.Fatalf("chunk %d offset %d points at %q, want %q", i, off, got, want)
+		}
+	}
+}
+
+func writeTestFile(t *testing.T, data []byte) string {
+	t.Helper()
+	path := filepath.Join(t.TempDir(), "video.mp4.tmp")
+	if err := os.WriteFile(path, data, 0644); err != nil {
+		t.Fatal(err)
+	}
+	return path
+}
+
+func forceRewrite(path string) error {
+	f, err := os.OpenFile(path, os.O_RDWR, 0)
+	if err != nil {
+		return err
+	}
+	defer f.Close()
+	stat, err := f.Stat()
+	if err != nil {
+		return err
+	}
+
+	var boxes []mp4Box
+	moov, mdat := -1, -1
+	err = readBoxes(f, 0, stat.Size(), func(typ string, offset, size, header int64) error {
+		switch {
+		case typ == "moov" && moov < 0:
+			moov = len(boxes)
+		case typ == "mdat" && mdat < 0:
+			mdat = len(boxes)
+		}
+		boxes = append(boxes, mp4Box{typ, offset, size, header})
+		return nil
+	})
+	if err != nil {
+		return err
+	}
+	if moov < 0 || mdat < 0 {
+		return errors.New("missing moov or mdat")
+	}
+	return rewriteFaststart(f, path, boxes, moov, mdat, stat.Size())
+}
+
+var faststartCases = []struct {
+	name  string
+	file  faststartFile
+	moved bool
+}{
+	{"stco", faststartFile{ftyp: true, chunks: 8}, true},
+	{"co64", faststartFile{ftyp: true, co64: true, chunks: 8}, true},
+	{"no ftyp", faststartFile{chunks: 8}, true},
+	{"moov size 0", faststartFile{ftyp: true, chunks: 8, moovSize0: true}, true},
+	{"co64 moov size 0", faststartFile{ftyp: true, co64: true, chunks: 8, moovSize0: true}, true},
+	{"mdat size 0", faststartFile{ftyp: true, chunks: 8, mdatSize0: true}, false},
+}
+
+func TestRelocateMoov(t *testing.T) {
+	for _, tc := range faststartCases {
+		t.Run(tc.name, func(t *testing.T) {
+			orig := tc.file.build()
+			path := writeTestFile(t, orig)
+
+			moved, err := relocateMoov(path)
+			if err != nil {
+				t.Fatalf("relocateMoov: %v", err)
+			}
+			if moved != tc.moved {
+				t.Fatalf("moved = %v, want %v", moved, tc.moved)
+			}
+			data, err := os.ReadFile(path)
+			if err != nil {
+				t.Fatal(err)
+			}
+			if !moved {
+				if !bytes.Equal(data, orig) {
+					t.Fatal("file changed although moov was not moved")
+				}
+				return
+			}
+			checkMoovFirst(t, data, tc.file.chunks)
+		})
+	}
+}
+
+func TestRewriteFaststart(t *testing.T) {
+	for _, tc := range faststartCases {
+		if !tc.moved {
+			continue
+		}
+		t.Run(tc.name, func(t *testing.T) {
+			path := writeTestFile(t, tc.file.build())
+			if err := forceRewrite(path); err != nil {
+				t.Fatalf("rewriteFaststart: %v", err)
+			}
+			data, err := os.ReadFile(path)
+			if err != nil {
+				t.Fatal(err)
+			}
+			checkMoovFirst(t, data, tc.file.chunks)
+		})
+	}
+}
+
+func TestUndoInsertedMoov(t *testing.T) {
+	for _, tc := range faststartCases {
+		if !tc.moved {
+			continue
+		}
+		t.Run(tc.name, func(t *testing.T) {
+			orig := tc.file.build()
+			path := writeTestFile(t, orig)
+			f, err := os.OpenFile(path, os.O_RDWR, 0)
+			if err != nil {
+				t.Fatal(err)
+			}
+			defer f.Close()
+
+			boxes := topLevelBoxes(t, orig)
+			m := boxes[len(boxes)-1]
+			hasLead := boxes[0].typ == "ftyp"
+			shift := fsBlockSize(f)
+			if err := insertRange(f, 0, shift); err != nil {
+				t.Skipf("insert range unsupported here: %v", err)
+			}
+			head := make([]byte, shift)
+			putFreeBox(head)
+			if err := writeInsertedMoov(f, head, hasLead, m, shift); err != nil {
+				t.Fatalf("writeInsertedMoov: %v", err)
+			}
+			if err := undoInsertedMoov(f, hasLead, m, shift); err != nil {
+				t.Fatalf("undoInsertedMoov: %v", err)
+			}
+			data, err := os.ReadFile(path)
+			if err != nil {
+				t.Fatal(err)
+			}
+			if !bytes.Equal(data, orig) {
+				t.Fatal("undo did not restore the original file")
+			}
+		})
+	}
+}
+
+func TestRelocateMoovOffsetOverflow(t *testing.T) {
+	file := faststartFile{ftyp: true, chunks: 4, offset: func(i, base int) uint64 {
+		if i == 3 {
+			return math.MaxUint32 - 16
+		}
+		return uint64(base + i*testChunkSize)
+	}}
+	orig := file.build()
+	path := writeTestFile(t, orig)
+
+	moved, err := relocateMoov(path)
+	if !errors.Is(err, errOffsetOverflow) {
+		t.Fatalf("relocateMoov error = %v, want %v", err, errOffsetOverflow)
+	}
+	if moved {
+		t.Fatal("moved = true on overflow")
+	}
+	data, err := os.ReadFile(path)
+	if err != nil {
+		t.Fatal(err)
+	}
+	if !bytes.Equal(data, orig) {
+		t.Fatal("file changed after refused relocation")
+	}
+}
+
+func TestPatchOffsetTable(t *testing.T) {
+	table := func(width int, offsets ...uint64) []byte {
+		body := make([]byte, 8+width*len(offsets))
+		binary.BigEndian.PutUint32(body[4:], uint32(len(offsets)))
+		for i, off := range offsets {
+			if width == 4 {
+				binary.BigEndian.PutUint32(body[8+4*i:], uint32(off))
+			} else {
+				binary.BigEndian.PutUint64(body[8+8*i:], off)
+			}
+		}
+		return body
+	}
+	add := func(n int64) func(int64) int64 {
+		return func(off int64) int64 { return off + n }
+	}
+
+	cases := []struct {
+		name  string
+		width int
+		body  []byte
+		shift func(int64) int64
+		want  []byte
+		err   error
+	}{
+		{"stco", 4, table(4, 40, 4136), add(4096), table(4, 4136, 8232), nil},
+		{"co64", 8, table(8, 40, 1<<33), add(4096), table(8, 4136, 1<<33+4096), nil},
+		{"stco at limit", 4, table(4, math.MaxUint32-4096), add(4096), table(4, math.MaxUint32), nil},
+		{"stco overflow", 4, table(4, 40, math.MaxUint32-16), add(4096), nil, errOffsetOverflow},
+		{"co64 past 32 bits", 8, table(8, math.MaxUint32-16), add(4096), table(8, math.MaxUint32+4080), nil},
+		{"truncated header", 4, []byte{0, 0, 0}, add(4096), nil, errNotMP4},
+		{"count past end", 4, table(4, 40)[:8], add(4096), nil, errNotMP4},
+	}
+	for _, tc := range cases {
+		t.Run(tc.name, func(t *testing.T) {
+			err := patchOffsetTable(tc.body, tc.width, tc.shift)
+			if !errors.Is(err, tc.err) {
+				t.Fatalf("error = %v, want %v", err, tc.err)
+			}
+			if tc.err == nil && !bytes.Equal(tc.body, tc.want) {
+				t.Fatalf("patched table = %x, want %x", tc.body, tc.want)
+			}
+		})
+	}
+}
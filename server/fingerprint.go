@@ -0,0 +1,115 @@
+package main
+
+import (
+	"crypto/sha256"
+	"encoding/binary"
+	"encoding/hex"
+	"fmt"
+	"hash"
+	"hash/fnv"
+	"os"
+)
+
+const FingerprintSampleSize = 256 << 10
+
+type byteRange struct {
+	start int64
+	end   int64
+}
+
+func fingerprintRanges(size int64) []byteRange {
+	if size <= 3*FingerprintSampleSize {
+		return []byteRange{{0, size}}
+	}
+	mid := (size - FingerprintSampleSize) / 2
+	return []byteRange{
+		{0, FingerprintSampleSize},
+		{mid, mid + FingerprintSampleSize},
+		{size - FingerprintSampleSize, size},
+	}
+}
+
+type fingerprinter struct {
+	h      hash.Hash64
+	ranges []byteRange
+	offset int64
+}
+
+func newFingerprinter(size int64) *fingerprinter {
+	f := &fingerprinter{h: fnv.New64a(), ranges: fingerprintRanges(size)}
+	var header [8]byte
+	binary.LittleEndian.PutUint64(header[:], uint64(size))
+	f.h.Write(header[:])
+	return f
+}
+
+func (f *fingerprinter) Write(p []byte) (int, error) {
+	start := f.offset
+	end := start + int64(len(p))
+	for _, r := range f.ranges {
+		lo, hi := r.start, r.end
+		if lo < start {
+			lo = start
+		}
+		if hi > end {
+			hi = end
+		}
+		if lo < hi {
+			f.h.Write(p[lo-start : hi-start])
+		}
+	}
+	f.offset = end
+	return len(p), nil
+}
+
+func (f *fingerprinter) Sum() string {
+	return fmt.Sprintf("fp1:%016x", f.h.Sum64())
+}
+
+func fingerprintFile(path string) (string, error) {
+	file, err := os.Open(path)
+	if err != nil {
+		return "", err
+	}
+	defer file.Close()
+
+	info, err := file.Stat()
+	if err != nil {
+		return "", err
+	}
+
+	f := newFingerprinter(info.Size())
+	buf := make([]byte, FingerprintSampleSize)
+	for _, r := range f.ranges {
+		for off := r.start; off < r.end; {
+			n := r.end - off
+			if n > int64(len(buf)) {
+				n = int64(len(buf))
+			}
+			read, err := file.ReadAt(buf[:n], off)
+			if read > 0 {
+				f.offset = off
+				f.Write(buf[:read])
+			}
+			if err != nil && read == 0 {
+				return "", err
+			}
+			off += int64(read)
+		}
+	}
+	return f.Sum(), nil
+}
+
+func sha256File(path string) (string, error) {
+	file, err := os.Open(path)
+	if err != nil {
+		return "", err
+	}
+	defer file.Close()
+
+	h := sha256.New()
+	if _, err := streamToFile(h, file); err != nil {
+		return "", err
+	}
+	return hex.EncodeToString(h.Sum(nil)), nil
+}
@@ -0,0 +1,128 @@
+//go:build jni
+
+package main
+
+/*
+#cgo LDFLAGS: -llog
+#include <stdlib.h>
+#include <android/log.h>
+
+void tvEmitEvent(char *kind, char *payload, int length);
+*/
+import "C"
+
+import (
+	"bufio"
+	"encoding/json"
+	"fmt"
+	"net/http"
+	"os"
+	"sync"
+	"unsafe"
+)
+
+var embedded struct {
+	mu  sync.Mutex
+	srv *server
+}
+
+func init() {
+	eventSink = func(kind string, payload []byte) {
+		ckind := C.CString(kind)
+		cpayload := C.CBytes(payload)
+		C.tvEmitEvent(ckind, (*C.char)(cpayload), C.int(len(payload)))
+		C.free(unsafe.Pointer(ckind))
+		C.free(cpayload)
+	}
+	redirectOutputToLogcat()
+}
+
+func redirectOutputToLogcat() {
+	r, w, err := os.Pipe()
+	if err != nil {
+		return
+	}
+	os.Stdout = w
+	os.Stderr = w
+
+	go func() {
+		tag := C.CString("GoServer")
+		scanner := bufio.NewScanner(r)
+		for scanner.Scan() {
+			msg := C.CString(scanner.Text())
+			C.__android_log_write(C.int(C.ANDROID_LOG_INFO), tag, msg)
+			C.free(unsafe.Pointer(msg))
+		}
+	}()
+}
+
+//export tvStart
+func tvStart(dir *C.char, port C.int, quotaMB, minFreeMB C.longlong, maxItems C.int) *C.char {
+	embedded.mu.Lock()
+	defer embedded.mu.Unlock()
+
+	if s := embedded.srv; s != nil {
+		return C.CString(string(readyMessage(advertisedIP(), s.port)))
+	}
+
+	srv, err := newServer(C.GoString(dir), int(port), LibraryPolicy{
+		QuotaBytes:   int64(quotaMB) << 20,
+		MinFreeBytes: int64(minFreeMB) << 20,
+		MaxItems:     int(maxItems),
+	}, defaultUploadPolicy())
+	if err != nil {
+		msg, _ := json.Marshal(struct {
+			Error string `json:"error"`
+		}{err.Error()})
+		return C.CString(string(msg))
+	}
+	embedded.srv = srv
+
+	go func() {
+		if err := srv.http.Serve(srv.ln); err != http.ErrServerClosed {
+			fmt.Fprintf(os.Stderr, "Server error: %v\n", err)
+		}
+		embedded.mu.Lock()
+		if embedded.srv == srv {
+			embedded.srv = nil
+		}
+		embedded.mu.Unlock()
+	}()
+
+	return C.CString(string(readyMessage(srv.ip, srv.port)))
+}
+
+//export tvStop
+func tvStop() {
+	embedded.mu.Lock()
+	defer embedded.mu.Unlock()
+
+	if embedded.srv != nil {
+		embedded.srv.http.Close()
+		embedded.srv = nil
+		metadata.close()
+		if err := library.Close(); err != nil {
+			fmt.Fprintf(os.Stderr, "Failed to close library: %v\n", err)
+		}
+		fmt.Println("Server stopped")
+	}
+}
+
+//export tvSetAddress
+func tvSetAddress(ip *C.char) *C.char {
+	if err := updateAdvertisedIP(C.GoString(ip)); err != nil {
+		return C.CString(err.Error())
+	}
+	return nil
+}
+
+//export tvIsRunning
+func tvIsRunning() C.int {
+	embedded.mu.Lock()
+	defer embedded.mu.Unlock()
+
+	if embedded.srv != nil {
+		return 1
+	}
+	return 0
+}
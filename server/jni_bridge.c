@@ -0,0 +1,95 @@
+//go:build jni
+
+#include <jni.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include "_cgo_export.h"
+
+static JavaVM *jvm;
+static jclass serverClass;
+static jmethodID eventMethod;
+static pthread_key_t detachKey;
+
+static void detachThread(void *env) {
+	(*jvm)->DetachCurrentThread(jvm);
+}
+
+JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
+	JNIEnv *env;
+	if ((*vm)->GetEnv(vm, (void **)&env, JNI_VERSION_1_6) != JNI_OK) {
+		return JNI_ERR;
+	}
+
+	jclass cls = (*env)->FindClass(env, "com/example/tvreceiver/EmbeddedServer");
+	if (cls == NULL) {
+		return JNI_ERR;
+	}
+	eventMethod = (*env)->GetStaticMethodID(env, cls, "onNativeEvent", "(Ljava/lang/String;[B)V");
+	if (eventMethod == NULL) {
+		return JNI_ERR;
+	}
+	serverClass = (*env)->NewGlobalRef(env, cls);
+	pthread_key_create(&detachKey, detachThread);
+	jvm = vm;
+	return JNI_VERSION_1_6;
+}
+
+void tvEmitEvent(char *kind, char *payload, int length) {
+	JNIEnv *env;
+	if (jvm == NULL) {
+		return;
+	}
+	if ((*jvm)->GetEnv(jvm, (void **)&env, JNI_VERSION_1_6) != JNI_OK) {
+		if ((*jvm)->AttachCurrentThreadAsDaemon(jvm, &env, NULL) != JNI_OK) {
+			return;
+		}
+		pthread_setspecific(detachKey, env);
+	}
+
+	jstring jkind = (*env)->NewStringUTF(env, kind);
+	jbyteArray jpayload = (*env)->NewByteArray(env, length);
+	(*env)->SetByteArrayRegion(env, jpayload, 0, length, (const jbyte *)payload);
+	(*env)->CallStaticVoidMethod(env, serverClass, eventMethod, jkind, jpayload);
+	if ((*env)->ExceptionCheck(env)) {
+		(*env)->ExceptionDescribe(env);
+		(*env)->ExceptionClear(env);
+	}
+	(*env)->DeleteLocalRef(env, jkind);
+	(*env)->DeleteLocalRef(env, jpayload);
+}
+
+JNIEXPORT jstring JNICALL
+Java_com_example_tvreceiver_EmbeddedServer_nativeStart(JNIEnv *env, jclass cls, jstring dir, jint port,
+		jlong quotaMb, jlong minFreeMb, jint maxItems) {
+	const char *cdir = (*env)->GetStringUTFChars(env, dir, NULL);
+	char *result = tvStart((char *)cdir, port, quotaMb, minFreeMb, maxItems);
+	(*env)->ReleaseStringUTFChars(env, dir, cdir);
+
+	jstring jresult = (*env)->NewStringUTF(env, result);
+	free(result);
+	return jresult;
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_tvreceiver_EmbeddedServer_nativeStop(JNIEnv *env, jclass cls) {
+	tvStop();
+}
+
+JNIEXPORT jstring JNICALL
+Java_com_example_tvreceiver_EmbeddedServer_nativeSetAddress(JNIEnv *env, jclass cls, jstring ip) {
+	const char *cip = (*env)->GetStringUTFChars(env, ip, NULL);
+	char *error = tvSetAddress((char *)cip);
+	(*env)->ReleaseStringUTFChars(env, ip, cip);
+
+	if (error == NULL) {
+		return NULL;
+	}
+	jstring jerror = (*env)->NewStringUTF(env, error);
+	free(error);
+	return jerror;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_tvreceiver_EmbeddedServer_nativeIsRunning(JNIEnv *env, jclass cls) {
+	return tvIsRunning() ? JNI_TRUE : JNI_FALSE;
+}
@@ -0,0 +1,612 @@
+package main
+
+import (
+	"bufio"
+	"bytes"
+	"container/list"
+	"crypto/rand"
+	"encoding/hex"
+	"encoding/json"
+	"errors"
+	"fmt"
+	"io"
+	"net/http"
+	"os"
+	"path/filepath"
+	"sort"
+	"strings"
+	"sync"
+	"time"
+)
+
+const (
+	LibraryDirName   = "library"
+	LibraryIndexName = "library.json"
+	libraryVersion   = 1
+	journalSuffix    = ".journal"
+	journalLimit     = 256
+)
+
+type MediaEntry struct {
+	ID   string `json:"id"`
+	Name string `json:"name"`
+	File string `json:"file"`
+	Size int64  `json:"size"`
+	MediaInfo
+	UploadedAt  int64  `json:"uploaded_at"`
+	LastPlayed  int64  `json:"last_played"`
+	SHA256      string `json:"sha256"`
+	Fingerprint string `json:"fingerprint"`
+	SourceSize  int64  `json:"source_size,omitempty"`
+	Container   string `json:"container,omitempty"`
+	Layout      string `json:"layout,omitempty"`
+}
+
+type libraryIndex struct {
+	Version int           `json:"version"`
+	Entries []*MediaEntry `json:"entries"`
+}
+
+type journalRecord struct {
+	Op    string      `json:"op"`
+	ID    string      `json:"id,omitempty"`
+	Entry *MediaEntry `json:"entry,omitempty"`
+}
+
+type libraryElems struct {
+	upload *list.Element
+	lru    *list.Element
+}
+
+type LibraryPolicy struct {
+	QuotaBytes   int64
+	MinFreeBytes int64
+	MaxItems     int
+}
+
+type Library struct {
+	mu            sync.RWMutex
+	dir           string
+	indexPath     string
+	policy        LibraryPolicy
+	entries       map[string]*MediaEntry
+	byFingerprint map[string]*MediaEntry
+	elems         map[string]libraryElems
+	uploads       *list.List
+	lru           *list.List
+	totalBytes    int64
+	journal       *os.File
+	journalCount  int
+}
+
+var library *Library
+
+func openLibrary(baseDir string, policy LibraryPolicy) (*Library, error) {
+	l := &Library{
+		dir:           filepath.Join(baseDir, LibraryDirName),
+		indexPath:     filepath.Join(baseDir, LibraryIndexName),
+		policy:        policy,
+		entries:       map[string]*MediaEntry{},
+		byFingerprint: map[string]*MediaEntry{},
+		elems:         map[string]libraryElems{},
+		uploads:       list.New(),
+		lru:           list.New(),
+	}
+	if err := os.MkdirAll(l.dir, 0755); err != nil {
+		return nil, err
+	}
+
+	loaded := map[string]*MediaEntry{}
+	data, err := os.ReadFile(l.indexPath)
+	if err != nil && !os.IsNotExist(err) {
+		return nil, err
+	}
+	if err == nil {
+		var index libraryIndex
+		if err := json.Unmarshal(data, &index); err != nil {
+			return nil, fmt.Errorf("corrupt library index: %v", err)
+		}
+		for _, e := range index.Entries {
+			loaded[e.ID] = e
+		}
+	}
+	if err := replayJournal(l.indexPath+journalSuffix, loaded); err != nil {
+		return nil, err
+	}
+
+	byUpload := make([]*MediaEntry, 0, len(loaded))
+	for _, e := range loaded {
+		byUpload = append(byUpload, e)
+	}
+	sort.SliceStable(byUpload, func(i, j int) bool {
+		return byUpload[i].UploadedAt < byUpload[j].UploadedAt
+	})
+	byUse := append([]*MediaEntry(nil), byUpload...)
+	sort.SliceStable(byUse, func(i, j int) bool {
+		return lastUsed(byUse[i]) < lastUsed(byUse[j])
+	})
+	for _, e := range byUpload {
+		l.insertLocked(e)
+	}
+	for _, e := range byUse {
+		l.lru.MoveToBack(l.elems[e.ID].lru)
+	}
+
+	l.journal, err = os.OpenFile(l.indexPath+journalSuffix, os.O_WRONLY|os.O_CREATE|os.O_APPEND, 0644)
+	if err != nil {
+		return nil, err
+	}
+	if err := l.compactLocked(); err != nil {
+		l.journal.Close()
+		return nil, err
+	}
+
+	if err := l.importLegacyVideo(filepath.Join(baseDir, VideoFileName)); err != nil {
+		fmt.Fprintf(os.Stderr, "Failed to import legacy video: %v\n", err)
+	}
+	return l, nil
+}
+
+func (l *Library) Close() error {
+	l.mu.Lock()
+	defer l.mu.Unlock()
+
+	if l.journal == nil {
+		return nil
+	}
+	err := l.compactLocked()
+	if cerr := l.journal.Close(); err == nil {
+		err = cerr
+	}
+	l.journal = nil
+	return err
+}
+
+func (l *Library) importLegacyVideo(path string) error {
+	info, err := os.Stat(path)
+	if os.IsNotExist(err) {
+		return nil
+	}
+	if err != nil {
+		return err
+	}
+
+	e := l.NewEntry(VideoFileName)
+	if err := os.Rename(path, l.Path(e)); err != nil {
+		return err
+	}
+	e.Size = info.Size()
+	e.UploadedAt = info.ModTime().Unix()
+	if fp, err := fingerprintFile(l.Path(e)); err == nil {
+		e.Fingerprint = fp
+	}
+	return l.Add(e)
+}
+
+func (l *Library) Dir() string {
+	return l.dir
+}
+
+func (l *Library) NewEntry(name string) *MediaEntry {
+	var b [8]byte
+	rand.Read(b[:])
+	id := hex.EncodeToString(b[:])
+	return &MediaEntry{
+		ID:         id,
+		Name:       name,
+		File:       id + strings.ToLower(filepath.Ext(name)),
+		UploadedAt: time.Now().Unix(),
+	}
+}
+
+func (l *Library) Path(e *MediaEntry) string {
+	return filepath.Join(l.dir, e.File)
+}
+
+func (l *Library) TempPath(e *MediaEntry) string {
+	return l.Path(e) + ".tmp"
+}
+
+func (l *Library) Add(e *MediaEntry) error {
+	l.mu.Lock()
+	defer l.mu.Unlock()
+
+	l.insertLocked(e)
+	records := []journalRecord{{Op: "put", Entry: e}}
+
+	for _, victim := range l.evictLocked(e.ID) {
+		fmt.Printf("Evicted video: %s (%d bytes)\n", victim.Name, victim.Size)
+		records = append(records, journalRecord{Op: "delete", ID: victim.ID})
+	}
+	if metadata != nil {
+		metadata.schedule(*e)
+	}
+	return l.appendLocked(records...)
+}
+
+func (l *Library) insertLocked(e *MediaEntry) {
+	l.entries[e.ID] = e
+	if e.Fingerprint != "" {
+		l.byFingerprint[e.Fingerprint] = e
+	}
+	l.elems[e.ID] = libraryElems{upload: l.uploads.PushBack(e), lru: l.lru.PushBack(e)}
+	l.totalBytes += e.Size
+}
+
+func (l *Library) FindByFingerprint(fingerprint string) (MediaEntry, bool) {
+	l.mu.RLock()
+	defer l.mu.RUnlock()
+
+	e, ok := l.byFingerprint[fingerprint]
+	if !ok || fingerprint == "" {
+		return MediaEntry{}, false
+	}
+	return *e, true
+}
+
+func (l *Library) RequestPlayback(id string, enqueue bool) error {
+	e, ok := l.Get(id)
+	if !ok {
+		return os.ErrNotExist
+	}
+
+	return requestPlay(playEvent{Path: l.Path(e), Enqueue: enqueue})
+}
+
+func (l *Library) RequestStream(url string, enqueue bool) error {
+	return requestPlay(playEvent{URL: url, Enqueue: enqueue})
+}
+
+func (l *Library) Get(id string) (MediaEntry, bool) {
+	l.mu.RLock()
+	defer l.mu.RUnlock()
+
+	e, ok := l.entries[id]
+	if !ok {
+		return MediaEntry{}, false
+	}
+	return *e, true
+}
+
+func (l *Library) List() []MediaEntry {
+	l.mu.RLock()
+	defer l.mu.RUnlock()
+
+	entries := make([]MediaEntry, 0, len(l.entries))
+	for el := l.uploads.Back(); el != nil; el = el.Prev() {
+		entries = append(entries, *el.Value.(*MediaEntry))
+	}
+	return entries
+}
+
+func (l *Library) Count() int {
+	l.mu.RLock()
+	defer l.mu.RUnlock()
+	return len(l.entries)
+}
+
+func (l *Library) TotalBytes() int64 {
+	l.mu.RLock()
+	defer l.mu.RUnlock()
+	return l.totalBytes
+}
+
+func (l *Library) Latest() (MediaEntry, bool) {
+	l.mu.RLock()
+	defer l.mu.RUnlock()
+
+	el := l.uploads.Back()
+	if el == nil {
+		return MediaEntry{}, false
+	}
+	return *el.Value.(*MediaEntry), true
+}
+
+func (l *Library) SetInfo(id string, info MediaInfo) error {
+	l.mu.Lock()
+	defer l.mu.Unlock()
+
+	e, ok := l.entries[id]
+	if !ok {
+		return os.ErrNotExist
+	}
+	e.MediaInfo = info
+	return l.appendLocked(journalRecord{Op: "put", Entry: e})
+}
+
+func (l *Library) Replace(id, tempName string) (MediaEntry, error) {
+	tempName = filepath.Base(tempName)
+	if !strings.HasPrefix(tempName, id+".") || !strings.HasSuffix(tempName, ".tmp") {
+		return MediaEntry{}, fmt.Errorf("invalid replacement file: %s", tempName)
+	}
+	tempPath := filepath.Join(l.dir, tempName)
+	container, layout := sniffFile(tempPath)
+	if container == "" {
+		os.Remove(tempPath)
+		return MediaEntry{}, fmt.Errorf("unsupported replacement file: %s", tempName)
+	}
+	finalName := id + uploadExtension(strings.TrimSuffix(tempName, ".tmp"), container)
+	if layout == LayoutMoovLast {
+		if _, err := relocateMoov(tempPath); errors.Is(err, errFileDamaged) {
+			os.Remove(tempPath)
+			return MediaEntry{}, err
+		} else if err != nil {
+			fmt.Printf("Faststart relocation failed for %s: %v\n", tempName, err)
+		} else {
+			_, layout = sniffFile(tempPath)
+		}
+	}
+	info, err := os.Stat(tempPath)
+	if err != nil {
+		return MediaEntry{}, err
+	}
+	sum, err := sha256File(tempPath)
+	if err != nil {
+		return MediaEntry{}, err
+	}
+
+	l.mu.Lock()
+	defer l.mu.Unlock()
+
+	e, ok := l.entries[id]
+	if !ok {
+		os.Remove(tempPath)
+		return MediaEntry{}, os.ErrNotExist
+	}
+	oldPath := l.Path(e)
+	if err := os.Rename(tempPath, filepath.Join(l.dir, finalName)); err != nil {
+		return MediaEntry{}, err
+	}
+	if e.File != finalName {
+		os.Remove(oldPath)
+	}
+
+	old := *e
+	if e.SourceSize == 0 {
+		e.SourceSize = e.Size
+	}
+	l.totalBytes += info.Size() - e.Size
+	e.File = finalName
+	e.Size = info.Size()
+	e.SHA256 = sum
+	e.Container, e.Layout = container, layout
+	e.MediaInfo = MediaInfo{}
+	l.forgetMediaLocked(old)
+	if metadata != nil {
+		metadata.schedule(*e)
+	}
+	return *e, l.appendLocked(journalRecord{Op: "put", Entry: e})
+}
+
+func (l *Library) MarkPlayed(id string) error {
+	l.mu.Lock()
+	defer l.mu.Unlock()
+
+	e, ok := l.entries[id]
+	if !ok {
+		return os.ErrNotExist
+	}
+	e.LastPlayed = time.Now().Unix()
+	l.lru.MoveToBack(l.elems[id].lru)
+	return l.appendLocked(journalRecord{Op: "put", Entry: e})
+}
+
+func (l *Library) removeLocked(e *MediaEntry) {
+	delete(l.entries, e.ID)
+	if l.byFingerprint[e.Fingerprint] == e {
+		delete(l.byFingerprint, e.Fingerprint)
+	}
+	elems := l.elems[e.ID]
+	l.uploads.Remove(elems.upload)
+	l.lru.Remove(elems.lru)
+	delete(l.elems, e.ID)
+	l.totalBytes -= e.Size
+	os.Remove(l.Path(e))
+	l.forgetMediaLocked(*e)
+}
+
+func (l *Library) forgetMediaLocked(e MediaEntry) {
+	if metadata == nil {
+		return
+	}
+	key := mediaKey(e)
+	for _, other := range l.entries {
+		if mediaKey(*other) == key {
+			return
+		}
+	}
+	metadata.forget(e)
+}
+
+func (l *Library) overLimitLocked() bool {
+	p := l.policy
+	if p.MaxItems > 0 && len(l.entries) > p.MaxItems {
+		return true
+	}
+	if p.QuotaBytes > 0 && l.totalBytes+pendingUploadBytes() > p.QuotaBytes {
+		return true
+	}
+	if p.MinFreeBytes > 0 && freeBytes(l.dir) < p.MinFreeBytes {
+		return true
+	}
+	return false
+}
+
+func (l *Library) evictLocked(keepID string) []*MediaEntry {
+	var evicted []*MediaEntry
+	for l.overLimitLocked() {
+		el := l.lru.Front()
+		if el != nil && el.Value.(*MediaEntry).ID == keepID {
+			el = el.Next()
+		}
+		if el == nil {
+			break
+		}
+		victim := el.Value.(*MediaEntry)
+		l.removeLocked(victim)
+		evicted = append(evicted, victim)
+	}
+	return evicted
+}
+
+func lastUsed(e *MediaEntry) int64 {
+	if e.LastPlayed > e.UploadedAt {
+		return e.LastPlayed
+	}
+	return e.UploadedAt
+}
+
+func replayJournal(path string, entries map[string]*MediaEntry) error {
+	f, err := os.Open(path)
+	if os.IsNotExist(err) {
+		return nil
+	}
+	if err != nil {
+		return err
+	}
+	defer f.Close()
+
+	scanner := bufio.NewScanner(f)
+	scanner.Buffer(make([]byte, 64<<10), 1<<20)
+	for scanner.Scan() {
+		var rec journalRecord
+		if err := json.Unmarshal(scanner.Bytes(), &rec); err != nil {
+			fmt.Fprintf(os.Stderr, "Ignoring torn library journal record: %v\n", err)
+			break
+		}
+		switch {
+		case rec.Op == "put" && rec.Entry != nil:
+			entries[rec.Entry.ID] = rec.Entry
+		case rec.Op == "delete":
+			delete(entries, rec.ID)
+		}
+	}
+	return scanner.Err()
+}
+
+func (l *Library) appendLocked(records ...journalRecord) error {
+	var buf bytes.Buffer
+	enc := json.NewEncoder(&buf)
+	for _, rec := range records {
+		if err := enc.Encode(rec); err != nil {
+			return err
+		}
+	}
+	if _, err := l.journal.Write(buf.Bytes()); err != nil {
+		return err
+	}
+	l.journalCount += len(records)
+	if l.journalCount >= journalLimit {
+		return l.compactLocked()
+	}
+	return nil
+}
+
+func (l *Library) compactLocked() error {
+	entries := make([]*MediaEntry, 0, len(l.entries))
+	for el := l.uploads.Front(); el != nil; el = el.Next() {
+		entries = append(entries, el.Value.(*MediaEntry))
+	}
+	data, err := json.Marshal(libraryIndex{Version: libraryVersion, Entries: entries})
+	if err != nil {
+		return err
+	}
+	tempPath := l.indexPath + ".tmp"
+	if err := os.WriteFile(tempPath, data, 0644); err != nil {
+		return err
+	}
+	if err := os.Rename(tempPath, l.indexPath); err != nil {
+		return err
+	}
+	if err := l.journal.Truncate(0); err != nil {
+		return err
+	}
+	l.journalCount = 0
+	return nil
+}
+
+func handleLibrary(w http.ResponseWriter, r *http.Request) {
+	w.Header().Set("Content-Type", "application/json")
+	json.NewEncoder(w).Encode(library.List())
+}
+
+func handleLibraryPlayed(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPost {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	err := library.MarkPlayed(r.URL.Query().Get("id"))
+	if os.IsNotExist(err) {
+		http.Error(w, "Unknown video", http.StatusNotFound)
+		return
+	}
+	if err != nil {
+		http.Error(w, err.Error(), http.StatusInternalServerError)
+		return
+	}
+	w.WriteHeader(http.StatusNoContent)
+}
+
+func handleLibraryReplace(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPost {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+	if !isLoopbackRequest(r) {
+		http.Error(w, "Forbidden", http.StatusForbidden)
+		return
+	}
+
+	query := r.URL.Query()
+	e, err := library.Replace(query.Get("id"), query.Get("file"))
+	if os.IsNotExist(err) {
+		http.Error(w, "Unknown video", http.StatusNotFound)
+		return
+	}
+	if err != nil {
+		http.Error(w, err.Error(), http.StatusBadRequest)
+		return
+	}
+	fmt.Printf("Replaced video %s with processed file %s (%d bytes)\n", e.ID, e.File, e.Size)
+	w.Header().Set("Content-Type", "application/json")
+	json.NewEncoder(w).Encode(e)
+}
+
+type checkRequest struct {
+	Size        int64  `json:"size"`
+	Fingerprint string `json:"fingerprint"`
+}
+
+func handleUploadCheck(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPost {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	var req checkRequest
+	if err := json.NewDecoder(io.LimitReader(r.Body, 4096)).Decode(&req); err != nil {
+		http.Error(w, "Invalid request: "+err.Error(), http.StatusBadRequest)
+		return
+	}
+
+	w.Header().Set("Content-Type", "application/json")
+
+	e, ok := library.FindByFingerprint(req.Fingerprint)
+	size := e.Size
+	if e.SourceSize > 0 {
+		size = e.SourceSize
+	}
+	if !ok || size != req.Size {
+		fmt.Fprintf(w, `{"exists": false}`)
+		return
+	}
+
+	if err := library.RequestPlayback(e.ID, playPolicy == PlayPolicyQueue); err != nil {
+		http.Error(w, "Failed to start playback: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+
+	fmt.Printf("Duplicate upload skipped: %s (%s)\n", e.Name, e.ID)
+	fmt.Fprintf(w, `{"exists": true, "id": "%s"}`, e.ID)
+}
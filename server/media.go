@@ -0,0 +1,88 @@
+package main
+
+import (
+	"fmt"
+	"net/http"
+	"net/url"
+	"os"
+	"strings"
+	"time"
+)
+
+func mediaETag(e MediaEntry) string {
+	if e.SHA256 != "" {
+		return `"` + e.SHA256 + `"`
+	}
+	return fmt.Sprintf(`"%s-%d"`, e.ID, e.Size)
+}
+
+func handleMedia(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodGet && r.Method != http.MethodHead {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	id := strings.TrimPrefix(r.URL.Path, "/media/")
+	e, ok := library.Get(id)
+	if !ok {
+		http.NotFound(w, r)
+		return
+	}
+
+	f, err := os.Open(library.Path(&e))
+	if err != nil {
+		http.Error(w, "Failed to open video: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	defer f.Close()
+
+	w.Header().Set("ETag", mediaETag(e))
+	w.Header().Set("Cache-Control", "public, max-age=31536000, immutable")
+	w.Header().Set("Accept-Ranges", "bytes")
+	http.ServeContent(w, r, e.File, time.Unix(e.UploadedAt, 0), f)
+}
+
+func handlePlay(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPost {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+	if !isLoopbackRequest(r) && !isSameOriginRequest(r) {
+		http.Error(w, "Forbidden", http.StatusForbidden)
+		return
+	}
+
+	query := r.URL.Query()
+	enqueue := query.Get("enqueue") == "1"
+	if id := query.Get("id"); id != "" {
+		if err := library.RequestPlayback(id, enqueue); err != nil {
+			if os.IsNotExist(err) {
+				http.Error(w, "Unknown video", http.StatusNotFound)
+				return
+			}
+			playError(w, err)
+			return
+		}
+		w.WriteHeader(http.StatusNoContent)
+		return
+	}
+
+	target, err := url.Parse(query.Get("url"))
+	if err != nil || (target.Scheme != "http" && target.Scheme != "https") || target.Host == "" || target.User != nil {
+		http.Error(w, "Missing id or http(s) url", http.StatusBadRequest)
+		return
+	}
+	if err := library.RequestStream(target.String(), enqueue); err != nil {
+		playError(w, err)
+		return
+	}
+	w.WriteHeader(http.StatusNoContent)
+}
+
+func playError(w http.ResponseWriter, err error) {
+	if err == errNoPlayer {
+		http.Error(w, "TV player is not connected", http.StatusServiceUnavailable)
+		return
+	}
+	http.Error(w, "Failed to start playback: "+err.Error(), http.StatusInternalServerError)
+}
@@ -0,0 +1,233 @@
+package main
+
+import (
+	"encoding/json"
+	"fmt"
+	"net/http"
+	"os"
+	"path/filepath"
+	"runtime"
+	"strings"
+	"sync"
+)
+
+const (
+	MetadataCacheName  = "metadata.json"
+	ThumbDirName       = "thumbs"
+	metadataQueueDepth = 64
+	metadataNice       = 10
+	thumbCount         = 3
+)
+
+type MediaInfo struct {
+	DurationMs int64  `json:"duration_ms"`
+	Codec      string `json:"codec"`
+	Width      int    `json:"width,omitempty"`
+	Height     int    `json:"height,omitempty"`
+	Bitrate    int64  `json:"bitrate,omitempty"`
+}
+
+type metadataEvent struct {
+	ID  string `json:"id"`
+	Key string `json:"key"`
+	MediaInfo
+}
+
+type metadataCache struct {
+	mu     sync.Mutex
+	saveMu sync.Mutex
+	path   string
+	items  map[string]MediaInfo
+	queue  chan MediaEntry
+	done   chan struct{}
+	closed bool
+}
+
+var metadata *metadataCache
+
+func mediaKey(e MediaEntry) string {
+	switch {
+	case e.SHA256 != "":
+		return "sha256:" + e.SHA256
+	case e.Fingerprint != "":
+		return e.Fingerprint
+	default:
+		return "id:" + e.ID
+	}
+}
+
+func thumbPath(e MediaEntry, n int) string {
+	name := strings.ReplaceAll(mediaKey(e), ":", "_")
+	return filepath.Join(videoDir, ThumbDirName, fmt.Sprintf("%s_%d.jpg", name, n))
+}
+
+func openMetadataCache(baseDir string) *metadataCache {
+	c := &metadataCache{
+		path:  filepath.Join(baseDir, MetadataCacheName),
+		items: map[string]MediaInfo{},
+		queue: make(chan MediaEntry, metadataQueueDepth),
+		done:  make(chan struct{}),
+	}
+	if err := os.MkdirAll(filepath.Join(baseDir, ThumbDirName), 0755); err != nil {
+		fmt.Fprintf(os.Stderr, "Failed to create thumbnail directory: %v\n", err)
+	}
+	if data, err := os.ReadFile(c.path); err == nil {
+		if err := json.Unmarshal(data, &c.items); err != nil {
+			fmt.Fprintf(os.Stderr, "Ignoring corrupt metadata cache: %v\n", err)
+			c.items = map[string]MediaInfo{}
+		}
+	}
+	return c
+}
+
+func (c *metadataCache) start(backfill []MediaEntry) {
+	go c.run(backfill)
+}
+
+func (c *metadataCache) schedule(e MediaEntry) {
+	c.mu.Lock()
+	defer c.mu.Unlock()
+	if c.closed {
+		return
+	}
+	select {
+	case c.queue <- e:
+	default:
+		fmt.Printf("Metadata queue full, skipping %s\n", e.Name)
+	}
+}
+
+func (c *metadataCache) close() {
+	c.mu.Lock()
+	if c.closed {
+		c.mu.Unlock()
+		return
+	}
+	c.closed = true
+	close(c.queue)
+	c.mu.Unlock()
+	<-c.done
+}
+
+func (c *metadataCache) lookup(e MediaEntry) (MediaInfo, bool) {
+	c.mu.Lock()
+	defer c.mu.Unlock()
+	info, ok := c.items[mediaKey(e)]
+	return info, ok
+}
+
+func (c *metadataCache) run(backfill []MediaEntry) {
+	defer close(c.done)
+
+	runtime.LockOSThread()
+	if err := lowerThreadPriority(metadataNice); err != nil {
+		fmt.Printf("Metadata worker runs at normal priority: %v\n", err)
+	}
+
+	for _, e := range backfill {
+		if e.Codec == "" {
+			c.extract(e)
+		}
+	}
+	for e := range c.queue {
+		c.extract(e)
+	}
+}
+
+func (c *metadataCache) extract(e MediaEntry) {
+	info, cached := c.lookup(e)
+	if !cached {
+		var err error
+		info, err = probeMP4(library.Path(&e))
+		if err != nil {
+			fmt.Printf("Failed to read metadata of %s: %v\n", e.Name, err)
+			return
+		}
+		c.store(mediaKey(e), info)
+	}
+
+	if err := library.SetInfo(e.ID, info); err != nil {
+		return
+	}
+	emitEvent("metadata", metadataEvent{ID: e.ID, Key: mediaKey(e), MediaInfo: info})
+}
+
+func (c *metadataCache) store(key string, info MediaInfo) {
+	c.mu.Lock()
+	c.items[key] = info
+	c.mu.Unlock()
+	c.save()
+}
+
+func (c *metadataCache) forget(e MediaEntry) {
+	for n := 0; n < thumbCount; n++ {
+		if err := os.Remove(thumbPath(e, n)); err != nil && !os.IsNotExist(err) {
+			fmt.Fprintf(os.Stderr, "Failed to remove thumbnail: %v\n", err)
+		}
+	}
+
+	key := mediaKey(e)
+	c.mu.Lock()
+	if _, ok := c.items[key]; !ok {
+		c.mu.Unlock()
+		return
+	}
+	delete(c.items, key)
+	c.mu.Unlock()
+	c.save()
+}
+
+func (c *metadataCache) save() {
+	c.saveMu.Lock()
+	defer c.saveMu.Unlock()
+
+	c.mu.Lock()
+	data, err := json.Marshal(c.items)
+	c.mu.Unlock()
+	if err != nil {
+		return
+	}
+
+	tmp := c.path + ".tmp"
+	if err := os.WriteFile(tmp, data, 0644); err != nil {
+		fmt.Fprintf(os.Stderr, "Failed to write metadata cache: %v\n", err)
+		return
+	}
+	if err := os.Rename(tmp, c.path); err != nil {
+		fmt.Fprintf(os.Stderr, "Failed to write metadata cache: %v\n", err)
+	}
+}
+
+func handleThumb(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodGet && r.Method != http.MethodHead {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	rest := strings.TrimPrefix(r.URL.Path, "/thumb/")
+	id, n := rest, "1"
+	if i := strings.IndexByte(rest, '/'); i >= 0 {
+		id, n = rest[:i], rest[i+1:]
+	}
+	e, ok := library.Get(id)
+	if !ok || len(n) != 1 || n[0] < '0' || int(n[0]-'0') >= thumbCount {
+		http.NotFound(w, r)
+		return
+	}
+
+	f, err := os.Open(thumbPath(e, int(n[0]-'0')))
+	if err != nil {
+		http.NotFound(w, r)
+		return
+	}
+	defer f.Close()
+
+	stat, err := f.Stat()
+	if err != nil {
+		http.Error(w, "Failed to read thumbnail: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	w.Header().Set("Content-Type", "image/jpeg")
+	w.Header().Set("Cache-Control", "no-cache")
+	http.ServeContent(w, r, filepath.Base(f.Name()), stat.ModTime(), f)
+}
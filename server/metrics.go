@@ -0,0 +1,126 @@
+package main
+
+import (
+	"fmt"
+	"io"
+	"net/http"
+	"sync"
+	"sync/atomic"
+	"time"
+)
+
+type histogram struct {
+	mu     sync.Mutex
+	bounds []float64
+	counts []uint64
+	sum    float64
+	count  uint64
+}
+
+func newHistogram(bounds ...float64) *histogram {
+	return &histogram{bounds: bounds, counts: make([]uint64, len(bounds))}
+}
+
+func (h *histogram) Observe(v float64) {
+	h.mu.Lock()
+	defer h.mu.Unlock()
+
+	for i, b := range h.bounds {
+		if v <= b {
+			h.counts[i]++
+		}
+	}
+	h.sum += v
+	h.count++
+}
+
+func (h *histogram) write(w io.Writer, name, help string) {
+	h.mu.Lock()
+	defer h.mu.Unlock()
+
+	fmt.Fprintf(w, "# HELP %s %s\n# TYPE %s histogram\n", name, help, name)
+	for i, b := range h.bounds {
+		fmt.Fprintf(w, "%s_bucket{le=\"%g\"} %d\n", name, b, h.counts[i])
+	}
+	fmt.Fprintf(w, "%s_bucket{le=\"+Inf\"} %d\n", name, h.count)
+	fmt.Fprintf(w, "%s_sum %g\n%s_count %d\n", name, h.sum, name, h.count)
+}
+
+type serverMetrics struct {
+	uploadBytes      atomic.Int64
+	uploadsInFlight  atomic.Int64
+	uploadsOK        atomic.Int64
+	uploadsFailed    atomic.Int64
+	uploadsRejected  atomic.Int64
+	lastThroughputBs atomic.Int64
+	uploadDuration   *histogram
+	diskWrite        *histogram
+}
+
+var metrics = &serverMetrics{
+	uploadDuration: newHistogram(1, 5, 15, 30, 60, 120, 300, 600, 1800),
+	diskWrite:      newHistogram(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1),
+}
+
+func (m *serverMetrics) uploadStarted() {
+	m.uploadsInFlight.Add(1)
+}
+
+func (m *serverMetrics) uploadFinished(ok bool, written int64, elapsed time.Duration) {
+	m.uploadsInFlight.Add(-1)
+	if !ok {
+		m.uploadsFailed.Add(1)
+		return
+	}
+	m.uploadsOK.Add(1)
+	m.uploadDuration.Observe(elapsed.Seconds())
+	if secs := elapsed.Seconds(); secs > 0 {
+		m.lastThroughputBs.Store(int64(float64(written)/secs))
+	}
+}
+
+type timedWriter struct {
+	w io.Writer
+}
+
+func (t timedWriter) Write(p []byte) (int, error) {
+	start := time.Now()
+	n, err := t.w.Write(p)
+	metrics.diskWrite.Observe(time.Since(start).Seconds())
+	metrics.uploadBytes.Add(int64(n))
+	return n, err
+}
+
+func handleMetrics(w http.ResponseWriter, r *http.Request) {
+	w.Header().Set("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+
+	m := metrics
+	fmt.Fprintf(w, "# HELP tvreceiver_upload_bytes_total Bytes of uploaded video written to disk.\n")
+	fmt.Fprintf(w, "# TYPE tvreceiver_upload_bytes_total counter\n")
+	fmt.Fprintf(w, "tvreceiver_upload_bytes_total %d\n", m.uploadBytes.Load())
+
+	fmt.Fprintf(w, "# HELP tvreceiver_uploads_in_flight Uploads currently being received.\n")
+	fmt.Fprintf(w, "# TYPE tvreceiver_uploads_in_flight gauge\n")
+	fmt.Fprintf(w, "tvreceiver_uploads_in_flight %d\n", m.uploadsInFlight.Load())
+
+	fmt.Fprintf(w, "# HELP tvreceiver_uploads_total Finished uploads by result.\n")
+	fmt.Fprintf(w, "# TYPE tvreceiver_uploads_total counter\n")
+	fmt.Fprintf(w, "tvreceiver_uploads_total{result=\"ok\"} %d\n", m.uploadsOK.Load())
+	fmt.Fprintf(w, "tvreceiver_uploads_total{result=\"error\"} %d\n", m.uploadsFailed.Load())
+	fmt.Fprintf(w, "tvreceiver_uploads_total{result=\"rejected\"} %d\n", m.uploadsRejected.Load())
+
+	fmt.Fprintf(w, "# HELP tvreceiver_upload_last_bytes_per_second Throughput of the most recent completed upload.\n")
+	fmt.Fprintf(w, "# TYPE tvreceiver_upload_last_bytes_per_second gauge\n")
+	fmt.Fprintf(w, "tvreceiver_upload_last_bytes_per_second %d\n", m.lastThroughputBs.Load())
+
+	m.uploadDuration.write(w, "tvreceiver_upload_duration_seconds", "Time to receive a complete upload.")
+	m.diskWrite.write(w, "tvreceiver_disk_write_seconds", "Latency of individual writes to the destination file.")
+
+	fmt.Fprintf(w, "# HELP tvreceiver_library_bytes Bytes of video stored in the library.\n")
+	fmt.Fprintf(w, "# TYPE tvreceiver_library_bytes gauge\n")
+	fmt.Fprintf(w, "tvreceiver_library_bytes %d\n", library.TotalBytes())
+
+	fmt.Fprintf(w, "# HELP tvreceiver_library_videos Videos stored in the library.\n")
+	fmt.Fprintf(w, "# TYPE tvreceiver_library_videos gauge\n")
+	fmt.Fprintf(w, "tvreceiver_library_videos %d\n", library.Count())
+}
@@ -0,0 +1,172 @@
+package main
+
+import (
+	"encoding/binary"
+	"errors"
+	"io"
+	"os"
+)
+
+var errNotMP4 = errors.New("not an MP4 file")
+
+func readBoxes(r io.ReaderAt, start, end int64, visit func(typ string, offset, size, header int64) error) error {
+	var hdr [16]byte
+	for off := start; off+8 <= end; {
+		if _, err := r.ReadAt(hdr[:8], off); err != nil {
+			return err
+		}
+		size := int64(binary.BigEndian.Uint32(hdr[:4]))
+		typ := string(hdr[4:8])
+		header := int64(8)
+		switch size {
+		case 1:
+			if _, err := r.ReadAt(hdr[8:16], off+8); err != nil {
+				return err
+			}
+			size = int64(binary.BigEndian.Uint64(hdr[8:16]))
+			header = 16
+		case 0:
+			size = end - off
+		}
+		if size < header || off+size > end {
+			return errNotMP4
+		}
+		if err := visit(typ, off, size, header); err != nil {
+			return err
+		}
+		off += size
+	}
+	return nil
+}
+
+func probeMP4(path string) (MediaInfo, error) {
+	var info MediaInfo
+
+	f, err := os.Open(path)
+	if err != nil {
+		return info, err
+	}
+	defer f.Close()
+
+	stat, err := f.Stat()
+	if err != nil {
+		return info, err
+	}
+
+	found := false
+	err = readBoxes(f, 0, stat.Size(), func(typ string, offset, size, header int64) error {
+		if typ != "moov" {
+			return nil
+		}
+		found = true
+		return parseMoov(f, offset+header, offset+size, &info)
+	})
+	if err != nil {
+		return info, err
+	}
+	if !found {
+		return info, errNotMP4
+	}
+	if info.DurationMs > 0 {
+		info.Bitrate = stat.Size() * 8 * 1000 / info.DurationMs
+	}
+	return info, nil
+}
+
+func parseMoov(r io.ReaderAt, start, end int64, info *MediaInfo) error {
+	return readBoxes(r, start, end, func(typ string, offset, size, header int64) error {
+		switch typ {
+		case "mvhd":
+			return parseMvhd(r, offset+header, info)
+		case "trak":
+			var t trackInfo
+			if err := t.walk(r, offset+header, offset+size); err != nil {
+				return err
+			}
+			if t.handler == "vide" && info.Codec == "" {
+				info.Codec = codecName(t.sampleEntry)
+				info.Width = t.width
+				info.Height = t.height
+			}
+		}
+		return nil
+	})
+}
+
+func parseMvhd(r io.ReaderAt, offset int64, info *MediaInfo) error {
+	var b [32]byte
+	if _, err := r.ReadAt(b[:], offset); err != nil {
+		return err
+	}
+
+	var timescale, duration uint64
+	if b[0] == 1 {
+		timescale = uint64(binary.BigEndian.Uint32(b[20:24]))
+		duration = binary.BigEndian.Uint64(b[24:32])
+	} else {
+		timescale = uint64(binary.BigEndian.Uint32(b[12:16]))
+		duration = uint64(binary.BigEndian.Uint32(b[16:20]))
+	}
+	if timescale > 0 {
+		info.DurationMs = int64(float64(duration) * 1000 / float64(timescale))
+	}
+	return nil
+}
+
+type trackInfo struct {
+	handler     string
+	sampleEntry string
+	width       int
+	height      int
+}
+
+func (t *trackInfo) walk(r io.ReaderAt, start, end int64) error {
+	return readBoxes(r, start, end, func(typ string, offset, size, header int64) error {
+		body := offset + header
+		switch typ {
+		case "mdia", "minf", "stbl":
+			return t.walk(r, body, offset+size)
+		case "tkhd":
+			var b [96]byte
+			if _, err := r.ReadAt(b[:], body); err != nil {
+				return err
+			}
+			dims := 76
+			if b[0] == 1 {
+				dims = 88
+			}
+			t.width = int(binary.BigEndian.Uint32(b[dims:dims+4]) >> 16)
+			t.height = int(binary.BigEndian.Uint32(b[dims+4:dims+8]) >> 16)
+		case "hdlr":
+			var b [12]byte
+			if _, err := r.ReadAt(b[:], body); err != nil {
+				return err
+			}
+			t.handler = string(b[8:12])
+		case "stsd":
+			var b [16]byte
+			if _, err := r.ReadAt(b[:], body); err != nil {
+				return err
+			}
+			t.sampleEntry = string(b[12:16])
+		}
+		return nil
+	})
+}
+
+func codecName(sampleEntry string) string {
+	switch sampleEntry {
+	case "avc1", "avc3":
+		return "h264"
+	case "hvc1", "hev1":
+		return "hevc"
+	case "vp09":
+		return "vp9"
+	case "av01":
+		return "av1"
+	case "mp4v":
+		return "mpeg4"
+	default:
+		return sampleEntry
+	}
+}
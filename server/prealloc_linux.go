@@ -0,0 +1,44 @@
+package main
+
+import (
+	"os"
+	"syscall"
+)
+
+const (
+	fallocKeepSize      = 0x01
+	fallocCollapseRange = 0x08
+	fallocInsertRange   = 0x20
+)
+
+func preallocate(f *os.File, size int64, keepSize bool) error {
+	var mode uint32
+	if keepSize {
+		mode = fallocKeepSize
+	}
+	return syscall.Fallocate(int(f.Fd()), mode, 0, size)
+}
+
+func insertRange(f *os.File, offset, length int64) error {
+	return syscall.Fallocate(int(f.Fd()), fallocInsertRange, offset, length)
+}
+
+func collapseRange(f *os.File, offset, length int64) error {
+	return syscall.Fallocate(int(f.Fd()), fallocCollapseRange, offset, length)
+}
+
+func fsBlockSize(f *os.File) int64 {
+	var st syscall.Statfs_t
+	if err := syscall.Fstatfs(int(f.Fd()), &st); err != nil || st.Bsize <= 0 {
+		return 4096
+	}
+	return int64(st.Bsize)
+}
+
+func freeBytes(dir string) int64 {
+	var st syscall.Statfs_t
+	if err := syscall.Statfs(dir, &st); err != nil {
+		return 1<<63 - 1
+	}
+	return int64(st.Bavail) * int64(st.Bsize)
+}
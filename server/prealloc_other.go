@@ -0,0 +1,28 @@
+//go:build !linux
+
+package main
+
+import (
+	"errors"
+	"os"
+)
+
+func preallocate(f *os.File, size int64, keepSize bool) error {
+	return errors.ErrUnsupported
+}
+
+func insertRange(f *os.File, offset, length int64) error {
+	return errors.ErrUnsupported
+}
+
+func collapseRange(f *os.File, offset, length int64) error {
+	return errors.ErrUnsupported
+}
+
+func fsBlockSize(f *os.File) int64 {
+	return 4096
+}
+
+func freeBytes(dir string) int64 {
+	return 1<<63 - 1
+}
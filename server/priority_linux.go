@@ -0,0 +1,7 @@
+package main
+
+import "syscall"
+
+func lowerThreadPriority(nice int) error {
+	return syscall.Setpriority(syscall.PRIO_PROCESS, syscall.Gettid(), nice)
+}
@@ -0,0 +1,9 @@
+//go:build !linux
+
+package main
+
+import "errors"
+
+func lowerThreadPriority(nice int) error {
+	return errors.ErrUnsupported
+}
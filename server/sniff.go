@@ -0,0 +1,143 @@
+package main
+
+import (
+	"bufio"
+	"bytes"
+	"errors"
+	"fmt"
+	"io"
+	"math"
+	"net/http"
+	"os"
+	"path/filepath"
+	"strings"
+)
+
+const SniffSize = 16 << 10
+
+const (
+	LayoutMoovFirst = "moov_first"
+	LayoutMoovLast  = "moov_last"
+)
+
+var containerExtensions = map[string]string{
+	"mp4":      ".mp4",
+	"mov":      ".mov",
+	"3gp":      ".3gp",
+	"matroska": ".mkv",
+	"webm":     ".webm",
+	"avi":      ".avi",
+	"asf":      ".wmv",
+	"flv":      ".flv",
+	"mpegts":   ".ts",
+}
+
+var (
+	ebmlMagic = []byte{0x1a, 0x45, 0xdf, 0xa3}
+	asfMagic  = []byte{0x30, 0x26, 0xb2, 0x75, 0x8e, 0x66, 0xcf, 0x11}
+)
+
+var errLayoutFound = errors.New("layout found")
+
+func sniffContainer(head []byte) string {
+	switch {
+	case len(head) >= 12 && string(head[4:8]) == "ftyp":
+		brand := string(head[8:12])
+		switch {
+		case brand == "qt  ":
+			return "mov"
+		case strings.HasPrefix(brand, "3g"):
+			return "3gp"
+		}
+		return "mp4"
+	case len(head) >= 8 && isQuickTimeAtom(string(head[4:8])):
+		return "mov"
+	case bytes.HasPrefix(head, ebmlMagic):
+		if bytes.Contains(head[:min(len(head), 64)], []byte("webm")) {
+			return "webm"
+		}
+		return "matroska"
+	case len(head) >= 12 && string(head[:4]) == "RIFF" && string(head[8:12]) == "AVI ":
+		return "avi"
+	case bytes.HasPrefix(head, asfMagic):
+		return "asf"
+	case len(head) >= 4 && string(head[:3]) == "FLV" && head[3] == 1:
+		return "flv"
+	case len(head) > 188 && head[0] == 0x47 && head[188] == 0x47:
+		return "mpegts"
+	}
+	return ""
+}
+
+func isQuickTimeAtom(typ string) bool {
+	switch typ {
+	case "moov", "mdat", "free", "skip", "wide", "pnot":
+		return true
+	}
+	return false
+}
+
+func isMP4Family(container string) bool {
+	return container == "mp4" || container == "mov" || container == "3gp"
+}
+
+func mp4Layout(r io.ReaderAt, end int64) string {
+	layout := ""
+	readBoxes(r, 0, end, func(typ string, offset, size, header int64) error {
+		switch typ {
+		case "moov":
+			layout = LayoutMoovFirst
+		case "mdat":
+			layout = LayoutMoovLast
+		default:
+			return nil
+		}
+		return errLayoutFound
+	})
+	return layout
+}
+
+func sniffUpload(src io.Reader) (io.Reader, string, string) {
+	br := bufio.NewReaderSize(src, SniffSize)
+	head, _ := br.Peek(SniffSize)
+	container := sniffContainer(head)
+	layout := ""
+	if isMP4Family(container) {
+		layout = mp4Layout(bytes.NewReader(head), math.MaxInt64)
+	}
+	return br, container, layout
+}
+
+func uploadExtension(filename, container string) string {
+	ext := strings.ToLower(filepath.Ext(filename))
+	if isMP4Family(container) && (ext == ".mp4" || ext == ".m4v" || ext == ".mov" || ext == ".3gp") {
+		return ext
+	}
+	return containerExtensions[container]
+}
+
+func sniffFile(path string) (string, string) {
+	f, err := os.Open(path)
+	if err != nil {
+		return "", ""
+	}
+	defer f.Close()
+
+	head := make([]byte, SniffSize)
+	n, _ := io.ReadFull(f, head)
+	container := sniffContainer(head[:n])
+	if !isMP4Family(container) {
+		return container, ""
+	}
+	stat, err := f.Stat()
+	if err != nil {
+		return container, ""
+	}
+	return container, mp4Layout(f, stat.Size())
+}
+
+func rejectUnsupported(w http.ResponseWriter, name string) {
+	fmt.Printf("Rejected upload %s: unrecognized container\n", name)
+	w.Header().Set("Connection", "close")
+	http.Error(w, "Unsupported file type. Only video files are allowed.", http.StatusUnsupportedMediaType)
+}
@@ -0,0 +1,119 @@
+package main
+
+import (
+	"bytes"
+	"compress/gzip"
+	"crypto/sha256"
+	"embed"
+	"encoding/hex"
+	"fmt"
+	"io/fs"
+	"net/http"
+	"path"
+	"strings"
+	"time"
+)
+
+//go:embed static
+var staticFS embed.FS
+
+type staticAsset struct {
+	etag      string
+	encodings map[string][]byte
+}
+
+var staticAssets = loadStaticAssets()
+
+func loadStaticAssets() map[string]*staticAsset {
+	assets := map[string]*staticAsset{}
+	fs.WalkDir(staticFS, "static", func(name string, d fs.DirEntry, err error) error {
+		if err != nil || d.IsDir() || strings.HasSuffix(name, ".gz") || strings.HasSuffix(name, ".br") {
+			return err
+		}
+		data, err := staticFS.ReadFile(name)
+		if err != nil {
+			return err
+		}
+
+		sum := sha256.Sum256(data)
+		asset := &staticAsset{
+			etag:      hex.EncodeToString(sum[:8]),
+			encodings: map[string][]byte{"identity": data},
+		}
+		for encoding, ext := range map[string]string{"gzip": ".gz", "br": ".br"} {
+			if compressed, err := staticFS.ReadFile(name + ext); err == nil && len(compressed) < len(data) {
+				asset.encodings[encoding] = compressed
+			}
+		}
+		if _, ok := asset.encodings["gzip"]; !ok {
+			if compressed, err := gzipBytes(data); err == nil && len(compressed) < len(data) {
+				asset.encodings["gzip"] = compressed
+			}
+		}
+		assets[strings.TrimPrefix(name, "static/")] = asset
+		return nil
+	})
+	return assets
+}
+
+func gzipBytes(data []byte) ([]byte, error) {
+	var buf bytes.Buffer
+	zw, err := gzip.NewWriterLevel(&buf, gzip.BestCompression)
+	if err != nil {
+		return nil, err
+	}
+	if _, err := zw.Write(data); err != nil {
+		return nil, err
+	}
+	if err := zw.Close(); err != nil {
+		return nil, err
+	}
+	return buf.Bytes(), nil
+}
+
+func acceptsEncoding(r *http.Request, encoding string) bool {
+	for _, part := range strings.Split(r.Header.Get("Accept-Encoding"), ",") {
+		name, params, _ := strings.Cut(strings.TrimSpace(part), ";")
+		if strings.TrimSpace(name) != encoding {
+			continue
+		}
+		q := strings.ReplaceAll(params, " ", "")
+		return q != "q=0" && q != "q=0.0" && q != "q=0.00" && q != "q=0.000"
+	}
+	return false
+}
+
+func serveStatic(w http.ResponseWriter, r *http.Request, name string) {
+	if r.Method != http.MethodGet && r.Method != http.MethodHead {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+	asset, ok := staticAssets[name]
+	if !ok {
+		http.NotFound(w, r)
+		return
+	}
+
+	encoding := "identity"
+	for _, candidate := range []string{"br", "gzip"} {
+		if _, ok := asset.encodings[candidate]; ok && acceptsEncoding(r, candidate) {
+			encoding = candidate
+			break
+		}
+	}
+
+	h := w.Header()
+	h.Set("Vary", "Accept-Encoding")
+	h.Set("Cache-Control", "no-cache")
+	if encoding == "identity" {
+		h.Set("ETag", `"`+asset.etag+`"`)
+	} else {
+		h.Set("Content-Encoding", encoding)
+		h.Set("ETag", fmt.Sprintf(`"%s-%s"`, asset.etag, encoding))
+	}
+	http.ServeContent(w, r, path.Base(name), time.Time{}, bytes.NewReader(asset.encodings[encoding]))
+}
+
+func handleStatic(w http.ResponseWriter, r *http.Request) {
+	serveStatic(w, r, strings.TrimPrefix(r.URL.Path, "/static/"))
+}
@@ -0,0 +1,254 @@
+package main
+
+import (
+	"crypto/sha256"
+	"encoding/hex"
+	"fmt"
+	"hash"
+	"io"
+	"mime/multipart"
+	"net/http"
+	"os"
+	"strconv"
+	"sync"
+	"time"
+)
+
+const UploadBufferSize = 1 << 20
+
+var uploadBufferPool = sync.Pool{
+	New: func() interface{} {
+		buf := make([]byte, UploadBufferSize)
+		return &buf
+	},
+}
+
+func handleUpload(w http.ResponseWriter, r *http.Request) {
+	if r.Method != http.MethodPost {
+		http.Error(w, "Method not allowed", http.StatusMethodNotAllowed)
+		return
+	}
+
+	if !admitUpload(w, r) {
+		return
+	}
+	defer uploadGate.release()
+
+	client := clientKey(r)
+	diskBandwidth.join(client)
+	defer diskBandwidth.leave(client)
+
+	r.Body = http.MaxBytesReader(w, r.Body, MaxUploadSize)
+
+	declaredSize, _ := strconv.ParseInt(r.URL.Query().Get("size"), 10, 64)
+	declaredFingerprint := r.URL.Query().Get("fingerprint")
+
+	reader, err := r.MultipartReader()
+	if err != nil {
+		http.Error(w, "Failed to parse form: "+err.Error(), http.StatusBadRequest)
+		return
+	}
+
+	for {
+		part, err := reader.NextPart()
+		if err == io.EOF {
+			http.Error(w, "Failed to get file: no video field in form", http.StatusBadRequest)
+			return
+		}
+		if err != nil {
+			http.Error(w, "Failed to parse form: "+err.Error(), http.StatusBadRequest)
+			return
+		}
+
+		if part.FormName() != "video" {
+			part.Close()
+			continue
+		}
+
+		sizeHint := declaredSize
+		if sizeHint <= 0 {
+			sizeHint = r.ContentLength
+		}
+		receiveVideo(w, part, client, declaredSize, sizeHint, declaredFingerprint)
+		part.Close()
+		return
+	}
+}
+
+func receiveVideo(w http.ResponseWriter, part *multipart.Part, client string, declaredSize, sizeHint int64, declaredFingerprint string) {
+	filename := part.FileName()
+	src, container, layout := sniffUpload(part)
+	if container == "" {
+		rejectUnsupported(w, filename)
+		return
+	}
+
+	entry := library.NewEntry(filename)
+	entry.File = entry.ID + uploadExtension(filename, container)
+	entry.Container = container
+	tempPath := library.TempPath(entry)
+	finalPath := library.Path(entry)
+
+	dst, err := os.Create(tempPath)
+	if err != nil {
+		http.Error(w, "Failed to create file: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	if sizeHint > 0 {
+		if err := preallocate(dst, sizeHint, true); err != nil {
+			fmt.Printf("Preallocation unavailable for %s: %v\n", filename, err)
+		}
+	}
+
+	start := time.Now()
+	metrics.uploadStarted()
+	ok := false
+	var written int64
+	defer func() {
+		metrics.uploadFinished(ok, written, time.Since(start))
+	}()
+
+	event := uploadEvent{
+		ID:        entry.ID,
+		Name:      filename,
+		Path:      tempPath,
+		Size:      declaredSize,
+		Container: container,
+		Layout:    layout,
+		Enqueue:   playPolicy == PlayPolicyQueue,
+	}
+	emitEvent("upload_started", event)
+
+	disk := newBlockWriter(throttledWriter{timedWriter{dst}, client})
+	writers := []io.Writer{disk}
+	var hasher hash.Hash
+	if layout != LayoutMoovLast {
+		hasher = sha256.New()
+		writers = append(writers, hasher)
+	}
+	if hasEventListeners() {
+		writers = append(writers, &progressWriter{event: event, last: start})
+	}
+	var fp *fingerprinter
+	if declaredSize > 0 {
+		fp = newFingerprinter(declaredSize)
+		writers = append(writers, fp)
+	}
+	written, err = streamToFile(io.MultiWriter(writers...), src)
+	if cerr := disk.Close(); err == nil {
+		err = cerr
+	}
+	if err == nil {
+		err = dst.Sync()
+	}
+	if err != nil {
+		dst.Close()
+		os.Remove(tempPath)
+		emitEvent("upload_aborted", event)
+		http.Error(w, "Failed to write file: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	dst.Close()
+
+	entry.Layout = layout
+	entry.Size = written
+	if fp != nil && written == declaredSize {
+		entry.Fingerprint = fp.Sum()
+	} else if fingerprint, err := fingerprintFile(tempPath); err == nil {
+		entry.Fingerprint = fingerprint
+	}
+	moved, err := faststartEntry(entry, tempPath)
+	if err != nil {
+		os.Remove(tempPath)
+		emitEvent("upload_aborted", event)
+		http.Error(w, "Failed to finalize file: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	if moved || hasher == nil {
+		sum, err := sha256File(tempPath)
+		if err != nil {
+			os.Remove(tempPath)
+			emitEvent("upload_aborted", event)
+			http.Error(w, "Failed to verify upload: "+err.Error(), http.StatusInternalServerError)
+			return
+		}
+		entry.SHA256 = sum
+	} else {
+		entry.SHA256 = hex.EncodeToString(hasher.Sum(nil))
+	}
+
+	if err := os.Rename(tempPath, finalPath); err != nil {
+		os.Remove(tempPath)
+		emitEvent("upload_aborted", event)
+		http.Error(w, "Failed to finalize file: "+err.Error(), http.StatusInternalServerError)
+		return
+	}
+	ok = true
+
+	if declaredFingerprint != "" && declaredFingerprint != entry.Fingerprint {
+		fmt.Fprintf(os.Stderr, "Fingerprint mismatch for %s: client %s, server %s\n",
+			filename, declaredFingerprint, entry.Fingerprint)
+	}
+	if err := library.Add(entry); err != nil {
+		fmt.Fprintf(os.Stderr, "Failed to update library index: %v\n", err)
+	}
+	emitEvent("upload_completed", uploadEvent{
+		ID:          entry.ID,
+		Name:        filename,
+		Path:        finalPath,
+		TempPath:    tempPath,
+		Size:        entry.Size,
+		SHA256:      entry.SHA256,
+		Fingerprint: entry.Fingerprint,
+		Enqueue:     playPolicy == PlayPolicyQueue,
+	})
+
+	mbps := throughputMBps(written, time.Since(start))
+	fmt.Printf("Received video: %s (%d bytes, %.1f MB/s)\n", filename, written, mbps)
+	w.WriteHeader(http.StatusOK)
+	fmt.Fprintf(w, "Upload successful: %d bytes received (%.1f MB/s)", written, mbps)
+}
+
+func streamToFile(dst io.Writer, src io.Reader) (int64, error) {
+	bufp := uploadBufferPool.Get().(*[]byte)
+	defer uploadBufferPool.Put(bufp)
+	buf := *bufp
+
+	var written int64
+	for {
+		n, rerr := fillBuffer(src, buf)
+		if n > 0 {
+			w, werr := dst.Write(buf[:n])
+			written += int64(w)
+			if werr != nil {
+				return written, werr
+			}
+		}
+		if rerr == io.EOF {
+			return written, nil
+		}
+		if rerr != nil {
+			return written, rerr
+		}
+	}
+}
+
+func fillBuffer(src io.Reader, buf []byte) (int, error) {
+	n := 0
+	for n < len(buf) {
+		m, err := src.Read(buf[n:])
+		n += m
+		if err != nil {
+			return n, err
+		}
+	}
+	return n, nil
+}
+
+func throughputMBps(written int64, elapsed time.Duration) float64 {
+	secs := elapsed.Seconds()
+	if secs <= 0 {
+		return 0
+	}
+	return float64(written) / secs / (1 << 20)
+}
@@ -0,0 +1,186 @@
+package main
+
+import (
+	"bytes"
+	"encoding/binary"
+	"fmt"
+	"io"
+	"mime/multipart"
+	"net/http"
+	"net/http/httptest"
+	"os"
+	"path/filepath"
+	"strings"
+	"testing"
+)
+
+var benchSizes = []int{1 << 20, 16 << 20, 64 << 20}
+
+var benchMP4Header = []byte{
+	0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm', 0, 0, 0, 0, 'i', 's', 'o', 'm', 'm', 'p', '4', '1',
+	0, 0, 0, 0, 'm', 'd', 'a', 't',
+}
+
+var benchBlockSizes = []int{256 << 10, 1 << 20, DefaultWriteBlockSize}
+
+func setupBenchLibrary(b *testing.B, blockSize int) {
+	b.Helper()
+	videoDir = b.TempDir()
+	var err error
+	library, err = openLibrary(videoDir, LibraryPolicy{MaxItems: 1})
+	if err != nil {
+		b.Fatal(err)
+	}
+	policy := defaultUploadPolicy()
+	policy.WriteBlockSize = blockSize
+	applyUploadPolicy(policy)
+}
+
+func multipartBody(b *testing.B, size int) ([]byte, string) {
+	b.Helper()
+	var buf bytes.Buffer
+	mw := multipart.NewWriter(&buf)
+	part, err := mw.CreateFormFile("video", "bench.mp4")
+	if err != nil {
+		b.Fatal(err)
+	}
+	payload := bytes.Repeat([]byte("0123456789abcdef"), size/16)
+	copy(payload, benchMP4Header)
+	part.Write(payload)
+	mw.Close()
+	return buf.Bytes(), mw.FormDataContentType()
+}
+
+func benchmarkHandler(b *testing.B, handler http.HandlerFunc, newRequest func() *http.Request, size int) {
+	b.SetBytes(int64(size))
+	b.ReportAllocs()
+	b.ResetTimer()
+	for i := 0; i < b.N; i++ {
+		rec := httptest.NewRecorder()
+		handler(rec, newRequest())
+		if rec.Code != http.StatusOK {
+			b.Fatalf("upload failed: %d %s", rec.Code, rec.Body.String())
+		}
+	}
+}
+
+func BenchmarkHandleUpload(b *testing.B) {
+	for _, size := range benchSizes {
+		for _, blockSize := range benchBlockSizes {
+			b.Run(fmt.Sprintf("size=%dMB/block=%dKB", size>>20, blockSize>>10), func(b *testing.B) {
+				setupBenchLibrary(b, blockSize)
+				body, contentType := multipartBody(b, size)
+				benchmarkHandler(b, handleUpload, func() *http.Request {
+					req := httptest.NewRequest(http.MethodPost, fmt.Sprintf("/upload?size=%d", size), bytes.NewReader(body))
+					req.Header.Set("Content-Type", contentType)
+					return req
+				}, size)
+			})
+		}
+	}
+}
+
+func BenchmarkMultipartRead(b *testing.B) {
+	for _, size := range benchSizes {
+		b.Run(fmt.Sprintf("size=%dMB", size>>20), func(b *testing.B) {
+			body, contentType := multipartBody(b, size)
+			boundary := strings.TrimPrefix(contentType, "multipart/form-data; boundary=")
+			b.SetBytes(int64(size))
+			b.ReportAllocs()
+			b.ResetTimer()
+			for i := 0; i < b.N; i++ {
+				part, err := multipart.NewReader(bytes.NewReader(body), boundary).NextPart()
+				if err != nil {
+					b.Fatal(err)
+				}
+				if _, err := streamToFile(io.Discard, part); err != nil {
+					b.Fatal(err)
+				}
+			}
+		})
+	}
+}
+
+func BenchmarkBlockWriter(b *testing.B) {
+	payload := make([]byte, UploadBufferSize)
+	for _, blockSize := range benchBlockSizes {
+		b.Run(fmt.Sprintf("block=%dKB", blockSize>>10), func(b *testing.B) {
+			writeBlockSize = blockSize
+			b.SetBytes(int64(len(payload)))
+			b.ReportAllocs()
+			w := newBlockWriter(io.Discard)
+			for i := 0; i < b.N; i++ {
+				w.Write(payload)
+			}
+			if err := w.Close(); err != nil {
+				b.Fatal(err)
+			}
+		})
+	}
+}
+
+func BenchmarkFingerprint(b *testing.B) {
+	for _, size := range benchSizes {
+		b.Run(fmt.Sprintf("size=%dMB", size>>20), func(b *testing.B) {
+			payload := make([]byte, UploadBufferSize)
+			b.SetBytes(int64(size))
+			b.ReportAllocs()
+			for i := 0; i < b.N; i++ {
+				f := newFingerprinter(int64(size))
+				for written := 0; written < size; written += len(payload) {
+					f.Write(payload)
+				}
+				f.Sum()
+			}
+		})
+	}
+}
+
+func BenchmarkSniffUpload(b *testing.B) {
+	head := make([]byte, SniffSize)
+	copy(head, benchMP4Header)
+	b.ReportAllocs()
+	for i := 0; i < b.N; i++ {
+		sniffUpload(bytes.NewReader(head))
+	}
+}
+
+func benchBox(typ string, body []byte) []byte {
+	box := make([]byte, 8, 8+len(body))
+	binary.BigEndian.PutUint32(box, uint32(8+len(body)))
+	copy(box[4:], typ)
+	return append(box, body...)
+}
+
+func benchMoovLastFile(mdatSize, chunks int) []byte {
+	stco := make([]byte, 8+4*chunks)
+	binary.BigEndian.PutUint32(stco[4:], uint32(chunks))
+	for i := 0; i < chunks; i++ {
+		binary.BigEndian.PutUint32(stco[8+4*i:], uint32(32+i*(mdatSize/chunks)))
+	}
+	moov := benchBox("moov", benchBox("trak", benchBox("mdia", benchBox("minf", benchBox("stbl", benchBox("stco", stco))))))
+	file := append([]byte{}, benchMP4Header[:24]...)
+	file = append(file, benchBox("mdat", make([]byte, mdatSize))...)
+	return append(file, moov...)
+}
+
+func BenchmarkRelocateMoov(b *testing.B) {
+	for _, size := range benchSizes {
+		b.Run(fmt.Sprintf("size=%dMB", size>>20), func(b *testing.B) {
+			data := benchMoovLastFile(size, size>>12)
+			path := filepath.Join(b.TempDir(), "video.mp4.tmp")
+			b.SetBytes(int64(len(data)))
+			b.ReportAllocs()
+			for i := 0; i < b.N; i++ {
+				b.StopTimer()
+				if err := os.WriteFile(path, data, 0644); err != nil {
+					b.Fatal(err)
+				}
+				b.StartTimer()
+				if moved, err := relocateMoov(path); err != nil || !moved {
+					b.Fatalf("relocation failed: moved=%v err=%v", moved, err)
+				}
+			}
+		})
+	}
+}